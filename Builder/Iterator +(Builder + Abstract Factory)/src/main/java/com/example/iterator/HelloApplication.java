@@ -1,5 +1,6 @@
 package com.example.iterator;
 
+import com.example.iterator.emotions.EmotionManager;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
@@ -8,12 +9,24 @@ import javafx.stage.Stage;
 import java.io.IOException;
 
 public class HelloApplication extends Application {
+    private HelloController controller;
+
     @Override
     public void start(Stage stage) throws IOException {
         FXMLLoader fxmlLoader = new FXMLLoader(HelloApplication.class.getResource("hello-view.fxml"));
         Scene scene = new Scene(fxmlLoader.load(), 1600, 900);
+        controller = fxmlLoader.getController();
         stage.setTitle("Паттерн итератор");
         stage.setScene(scene);
         stage.show();
     }
+
+    @Override
+    public void stop() {
+        if (controller != null) {
+            controller.dispose();
+        }
+        //дописываем отложенные изменения эмоций
+        EmotionManager.getInstance().close();
+    }
 }
@@ -2,6 +2,7 @@ package com.example.iterator;
 
 import com.example.iterator.model.ImageWithEmotions;
 import javafx.animation.KeyFrame;
+import javafx.application.Platform;
 import javafx.animation.Timeline;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
@@ -11,6 +12,9 @@ import javafx.scene.image.ImageView;
 import javafx.stage.DirectoryChooser;
 import javafx.util.Duration;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import com.example.iterator.emotions.*;
 import com.example.iterator.emotions.factory.EmotionFactory;
 import com.example.iterator.emotions.EmotionManager;
@@ -23,6 +27,9 @@ public class HelloController {
     @FXML private Label statusLabel;
     @FXML private ComboBox<String> formatCombo;
     @FXML private Pane emotionPane;
+    @FXML private ListView<Integer> thumbnailGrid;
+    @FXML private ToggleButton gridToggle;
+    @FXML private ToggleButton duplicatesToggle;
 
     private ImageAggregate slides;
     private ImageIterator iterator;
@@ -30,6 +37,32 @@ public class HelloController {
     private EmotionFactory emotionFactory;
     private EmotionManager emotionManager;
     private int slideDelay = 2;
+    //способ расчета хэшей альбома: -Dalbum.fingerprint=content - по всему содержимому файла
+    private final FingerprintMode fingerprintMode = FingerprintMode.valueOf(
+            System.getProperty("album.fingerprint", "metadata").toUpperCase(java.util.Locale.ROOT));
+    private final ImageLoadingService imageLoader = new ImageLoadingService(
+            3, FingerprintService.getInstance(fingerprintMode)::fingerprint, DecodedImageCache.getInstance());
+    private boolean forward = true; //направление просмотра для предзагрузки
+    private File displayedFile; //файл, показанный сейчас
+
+    //новые, измененные и удаленные файлы попадают в открытый альбом сами; -Dalbum.watch=false - отключить
+    private final boolean watchAlbum = Boolean.parseBoolean(System.getProperty("album.watch", "true"));
+    private AlbumWatcher watcher;
+
+    //масштаб по Ctrl+колесо мыши: 1.25^zoomLevel
+    private static final double ZOOM_STEP = 1.25;
+    private static final int MAX_ZOOM_LEVEL = 6;
+    private int zoomLevel = 0;
+
+    private final ThumbnailService thumbnails = new ThumbnailService(DecodedImageCache.getInstance());
+    private int gridColumns = 1;
+
+    //просмотр групп похожих: позиции альбома подряд по группам, для каждой - номер группы и место в ней
+    private int[] duplicateOrder;
+    private int[] duplicateGroupOf;
+    private int[] duplicatePlaceInGroup;
+    private List<int[]> duplicateGroups;
+    private int duplicatePosition = -1;
 
     @FXML
     public void initialize() {
@@ -45,6 +78,36 @@ public class HelloController {
                 showEmotionMenu(event.getX(), event.getY());
             }
         });
+
+        imageView.setOnScroll(event -> {
+            if (event.isControlDown() && iterator != null && event.getDeltaY() != 0) {
+                setZoomLevel(zoomLevel + (event.getDeltaY() > 0 ? 1 : -1));
+                //более крупный кадр декодируется заново, до готовности виден прежний
+                ImageWithEmotions current = iterator.current();
+                if (current != null) {
+                    showDecoded(current.getImageFile(), false);
+                }
+                event.consume();
+            }
+        });
+        updateTargetSize();
+
+        thumbnailGrid.setFixedCellSize(ThumbnailRowCell.ROW_HEIGHT); //без измерения строк при прокрутке
+        thumbnailGrid.setCellFactory(list ->
+                new ThumbnailRowCell(() -> slides, () -> gridColumns, thumbnails, this::openFromGrid));
+        thumbnailGrid.widthProperty().addListener((observable, oldWidth, newWidth) -> updateGridRows());
+    }
+
+    /*при выходе из приложения: наблюдение за альбомом снимается, пулы декодирования и миниатюр
+      останавливаются, хранилище миниатюр закрывается */
+    void dispose() {
+        if (timeline != null) {
+            timeline.stop();
+        }
+        closeWatcher();
+        thumbnails.shutdown();
+        imageLoader.shutdown();
+        closeThumbnailStore();
     }
 
     @FXML
@@ -55,10 +118,21 @@ public class HelloController {
 
         if (directory != null && directory.exists()) {
             String filter = formatCombo.getValue();
-            slides = new EnhancedImageAggregate(directory.getAbsolutePath(), filter);
-            ((EnhancedImageAggregate) slides).loadImages(); //Загружаем изображения
-
+            closeThumbnailStore();
+            closeWatcher();
+            exitDuplicates();
+            EnhancedImageAggregate album = new EnhancedImageAggregate(directory.getAbsolutePath(), filter, fingerprintMode);
+            slides = album;
+            album.loadImages(); //Загружаем изображения
+            iterator = null;
+            displayedFile = null;
+            startWatcher(album);
+
+            thumbnails.setStore(((EnhancedImageAggregate) slides).getThumbnailStore());
+            updateGridRows();
+            thumbnailGrid.refresh(); //другой альбом того же размера - строки те же, плитки нет
             if (slides.size() > 0) {
+                updateTargetSize(); //окно уже показано - известен масштаб экрана
                 iterator = slides.getIterator();
                 showNext();
                 statusLabel.setText("Загружено: " + slides.size() + " изображений");
@@ -68,6 +142,212 @@ public class HelloController {
         }
     }
 
+    @FXML
+    private void toggleGrid(ActionEvent event) {
+        boolean grid = gridToggle.isSelected();
+        thumbnailGrid.setVisible(grid);
+        imageView.setVisible(!grid);
+        emotionPane.setVisible(!grid);
+        if (grid) {
+            stopSlideShow(null);
+            updateGridRows();
+            if (iterator != null && iterator.getCurrentIndex() >= 0) {
+                thumbnailGrid.scrollTo(iterator.getCurrentIndex() / gridColumns);
+            }
+        }
+    }
+
+    /*двойной клик по миниатюре - показать это изображение */
+    private void openFromGrid(int index) {
+        exitDuplicates(); //дальше листаем весь альбом
+        if (iterator != null && iterator.goTo(index)) {
+            gridToggle.setSelected(false);
+            toggleGrid(null);
+            showNext(); //goTo ставит итератор перед index
+        }
+    }
+
+    /*группы похожих изображений ищутся в фоне; пока режим включен, листание и слайд-шоу идут по группам */
+    @FXML
+    private void toggleDuplicates(ActionEvent event) {
+        if (!duplicatesToggle.isSelected()) {
+            exitDuplicates();
+            if (iterator != null) {
+                statusLabel.setText("Просмотр всего альбома: " + iterator.getProgress());
+            }
+            return;
+        }
+        if (!(slides instanceof EnhancedImageAggregate) || slides.isEmpty()) {
+            duplicatesToggle.setSelected(false);
+            statusLabel.setText("Сначала выберите папку с изображениями!");
+            return;
+        }
+
+        stopSlideShow(null);
+        EnhancedImageAggregate album = (EnhancedImageAggregate) slides;
+        duplicatesToggle.setDisable(true);
+        statusLabel.setText("Поиск похожих изображений...");
+        Thread search = new Thread(() -> {
+            int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            DuplicateFinder finder = album.findDuplicates(parallelism);
+            List<int[]> groups = finder.clusters(DuplicateFinder.DEFAULT_MAX_DISTANCE);
+            Platform.runLater(() -> showDuplicateGroups(album, finder.getAlbumGeneration(), groups));
+        }, "duplicate-search");
+        search.setDaemon(true);
+        search.start();
+    }
+
+    private void showDuplicateGroups(EnhancedImageAggregate album, long generation, List<int[]> groups) {
+        duplicatesToggle.setDisable(false);
+        //пока искали, открыли другую папку или выключили режим
+        if (album != slides || !duplicatesToggle.isSelected()) return;
+        //наблюдатель изменил альбом - позиции в группах могли сдвинуться
+        if (generation != album.getGeneration()) {
+            duplicatesToggle.setSelected(false);
+            statusLabel.setText("Альбом изменился во время поиска - повторите поиск похожих");
+            return;
+        }
+        if (groups.isEmpty()) {
+            duplicatesToggle.setSelected(false);
+            statusLabel.setText("Похожих изображений не найдено");
+            return;
+        }
+
+        int total = 0;
+        for (int[] group : groups) {
+            total += group.length;
+        }
+        duplicateOrder = new int[total];
+        duplicateGroupOf = new int[total];
+        duplicatePlaceInGroup = new int[total];
+        int position = 0;
+        for (int group = 0; group < groups.size(); group++) {
+            int[] members = groups.get(group);
+            for (int place = 0; place < members.length; place++) {
+                duplicateOrder[position] = members[place];
+                duplicateGroupOf[position] = group;
+                duplicatePlaceInGroup[position] = place;
+                position++;
+            }
+        }
+        duplicateGroups = groups;
+        duplicatePosition = -1;
+        if (gridToggle.isSelected()) {
+            gridToggle.setSelected(false);
+            toggleGrid(null);
+        }
+        showNext();
+    }
+
+    private void exitDuplicates() {
+        duplicateOrder = null;
+        duplicateGroupOf = null;
+        duplicatePlaceInGroup = null;
+        duplicateGroups = null;
+        duplicatePosition = -1;
+        if (duplicatesToggle != null) {
+            duplicatesToggle.setSelected(false);
+        }
+    }
+
+    /*step: 1 - следующее, -1 - предыдущее; после последней группы снова первая */
+    private void showDuplicate(int step) {
+        forward = step > 0;
+        setZoomLevel(0);
+        duplicatePosition = Math.floorMod(duplicatePosition + step, duplicateOrder.length);
+        int group = duplicateGroupOf[duplicatePosition];
+        iterator.goTo(duplicateOrder[duplicatePosition]);
+        ImageWithEmotions image = iterator.current();
+        loadImageWithEmotions(image);
+        statusLabel.setText("Похожие: группа " + (group + 1) + " из " + duplicateGroups.size() +
+                ", кадр " + (duplicatePlaceInGroup[duplicatePosition] + 1) + " из " + duplicateGroups.get(group).length +
+                " - " + image.getFileName());
+    }
+
+    private void startWatcher(EnhancedImageAggregate album) {
+        if (!watchAlbum) return;
+        try {
+            watcher = AlbumWatcher.start(album, Platform::runLater, change -> albumChanged(album, change));
+        } catch (java.io.IOException e) {
+            System.err.println("Album watching unavailable: " + e.getMessage());
+        }
+    }
+
+    private void closeWatcher() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (java.io.IOException e) {
+                System.err.println("Error closing album watcher: " + e.getMessage());
+            }
+            watcher = null;
+        }
+    }
+
+    /*пакет изменений уже применен к альбому и его итератору (в потоке FX); слайд-шоу не останавливается */
+    private void albumChanged(EnhancedImageAggregate album, AlbumChange change) {
+        //эмоции переписанных файлов - под новый хэш, даже если альбом уже сменили
+        for (AlbumChange.Rehash rehash : change.getRehashed()) {
+            ImageWithEmotions image = rehash.getImage();
+            emotionManager.moveEmotions(rehash.getOldHash(), image.getImageFile(), image.getImageHash(),
+                    image.getScannedFileSize(), image.getEmotions());
+        }
+        if (album != slides) return; //пакет от прежнего альбома
+
+        if (!change.getRemoved().isEmpty()) {
+            exitDuplicates(); //позиции групп сдвинулись
+        }
+        updateGridRows();
+        thumbnailGrid.refresh();
+
+        if (slides.isEmpty()) {
+            stopSlideShow(null);
+            imageView.setImage(null);
+            emotionPane.getChildren().clear();
+            displayedFile = null;
+        } else if (iterator == null) {
+            iterator = slides.getIterator(); //папка была пустой
+            showNext();
+        } else if (change.getRemoved().contains(displayedFile)) {
+            showNext(); //итератор уже стоит перед следующим за удаленным
+        } else if (change.getUpdated().contains(displayedFile)) {
+            loadImageWithEmotions(iterator.current());
+        }
+        statusLabel.setText("Альбом обновлен (" + change.getAdded().size() + " новых, " +
+                change.getUpdated().size() + " изменено, " + change.getRemoved().size() + " удалено): " +
+                slides.size() + " изображений");
+    }
+
+    //хранилище миниатюр прежнего альбома больше не нужно
+    private void closeThumbnailStore() {
+        if (slides instanceof EnhancedImageAggregate) {
+            ThumbnailStore store = ((EnhancedImageAggregate) slides).getThumbnailStore();
+            if (store != null) {
+                try {
+                    store.close();
+                } catch (java.io.IOException e) {
+                    System.err.println("Error closing thumbnail store: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /*строки сетки: по ширине списка, ячейки заново раскладывают плитки */
+    private void updateGridRows() {
+        int columns = Math.max(1, (int) ((thumbnailGrid.getWidth() - 30) / ThumbnailRowCell.TILE_WIDTH));
+        int size = slides != null ? slides.size() : 0;
+        int rows = (size + columns - 1) / columns;
+        if (columns == gridColumns && rows == thumbnailGrid.getItems().size()) return;
+
+        gridColumns = columns;
+        List<Integer> rowIndexes = new ArrayList<>(rows);
+        for (int row = 0; row < rows; row++) {
+            rowIndexes.add(row);
+        }
+        thumbnailGrid.getItems().setAll(rowIndexes);
+        thumbnailGrid.refresh();
+    }
+
     @FXML
     private void startSlideShow(ActionEvent event) {
         if (iterator == null || slides.size() == 0) {
@@ -78,6 +358,7 @@ public class HelloController {
         stopSlideShow(null);
         timeline = new Timeline(new KeyFrame(Duration.seconds(slideDelay), e -> showNext()));
         timeline.setCycleCount(Timeline.INDEFINITE);
+        imageLoader.resetCounters();
         timeline.play();
         statusLabel.setText("Слайд-шоу запущено");
     }
@@ -86,7 +367,9 @@ public class HelloController {
     private void stopSlideShow(ActionEvent event) {
         if (timeline != null) {
             timeline.stop();
-            statusLabel.setText("Слайд-шоу остановлено");
+            long total = imageLoader.getHits() + imageLoader.getMisses();
+            statusLabel.setText("Слайд-шоу остановлено (кадров готово заранее: " +
+                    imageLoader.getHits() + " из " + total + ")");
         }
     }
 
@@ -101,14 +384,26 @@ public class HelloController {
     }
 
     private void showNext() {
+        if (duplicateOrder != null) {
+            showDuplicate(1);
+            return;
+        }
         if (iterator != null && iterator.hasNext()) {
+            forward = true;
+            setZoomLevel(0);
             ImageWithEmotions image = iterator.next();
             loadImageWithEmotions(image);
         }
     }
 
     private void showPrev() {
+        if (duplicateOrder != null) {
+            showDuplicate(-1);
+            return;
+        }
         if (iterator != null) {
+            forward = false;
+            setZoomLevel(0);
             ImageWithEmotions image = iterator.preview();
             loadImageWithEmotions(image);
         }
@@ -117,9 +412,8 @@ public class HelloController {
     private void loadImageWithEmotions(ImageWithEmotions image) {
         if (image != null) {
 
-            javafx.scene.image.Image fxImage = new javafx.scene.image.Image(
-                    image.getImageFile().toURI().toString());
-            imageView.setImage(fxImage);
+            displayedFile = image.getImageFile();
+            showDecoded(image.getImageFile(), true);
 
             emotionPane.getChildren().clear();
 
@@ -132,6 +426,64 @@ public class HelloController {
         }
     }
 
+    //декодирование в фоне; если кадр еще не готов, он появится, когда будет декодирован
+    private void showDecoded(File file, boolean clearWhileLoading) {
+        CompletableFuture<javafx.scene.image.Image> decoded = imageLoader.show(file, upcomingFiles());
+        if (decoded.isDone()) {
+            imageView.setImage(decoded.getNow(null));
+            return;
+        }
+        if (clearWhileLoading) {
+            imageView.setImage(null);
+        }
+        ImageAggregate album = slides;
+        decoded.thenAccept(fxImage -> Platform.runLater(() -> {
+            //пока декодировали, могли перелистнуть дальше или открыть другую папку (iterator тогда null)
+            if (slides == album && iterator != null && file.equals(iterator.getCurrentFile())) {
+                imageView.setImage(fxImage);
+            }
+        }));
+    }
+
+    private void setZoomLevel(int level) {
+        zoomLevel = Math.max(0, Math.min(MAX_ZOOM_LEVEL, level));
+        double zoom = Math.pow(ZOOM_STEP, zoomLevel);
+        imageView.setScaleX(zoom);
+        imageView.setScaleY(zoom);
+        emotionPane.setScaleX(zoom);
+        emotionPane.setScaleY(zoom);
+        updateTargetSize();
+    }
+
+    /*декодируем под область показа с учетом масштаба и плотности пикселей экрана */
+    private void updateTargetSize() {
+        double scale = Math.pow(ZOOM_STEP, zoomLevel);
+        if (imageView.getScene() != null && imageView.getScene().getWindow() != null) {
+            scale *= imageView.getScene().getWindow().getOutputScaleX();
+        }
+        imageLoader.setTargetSize((int) Math.ceil(imageView.getFitWidth() * scale),
+                (int) Math.ceil(imageView.getFitHeight() * scale));
+    }
+
+    /*файлы, которые покажут следующими при листании в текущем направлении (просмотр закольцован) */
+    private List<File> upcomingFiles() {
+        List<File> upcoming = new ArrayList<>();
+        if (duplicateOrder != null) {
+            for (int step = 1; step <= imageLoader.getPrefetchCount() && step < duplicateOrder.length; step++) {
+                int position = Math.floorMod(duplicatePosition + (forward ? step : -step), duplicateOrder.length);
+                upcoming.add(slides.getImage(duplicateOrder[position]).getImageFile());
+            }
+            return upcoming;
+        }
+        int total = slides.size();
+        int index = iterator.getCurrentIndex();
+        for (int step = 1; step <= imageLoader.getPrefetchCount() && step < total; step++) {
+            int position = forward ? (index + step) % total : (index - step + total) % total;
+            upcoming.add(slides.getImage(position).getImageFile());
+        }
+        return upcoming;
+    }
+
     private void displayEmotion(Emotion emotion) {
         double x = emotion.getPositionX() * imageView.getFitWidth();
         double y = emotion.getPositionY() * imageView.getFitHeight();
@@ -145,7 +497,10 @@ public class HelloController {
 
         emotionLabel.setOnMouseClicked(event -> {
             if (event.isControlDown()) {
-                iterator.removeEmotionFromCurrent(emotion.getId());
+                ImageWithEmotions image = iterator.current();
+                if (image != null && iterator.removeEmotionFromCurrent(emotion.getId())) {
+                    emotionManager.removeEmotion(image.getImageHash(), emotion.getId());
+                }
                 emotionPane.getChildren().remove(emotionLabel);
             }
         });
@@ -182,7 +537,7 @@ public class HelloController {
     }
 
     private void addEmotion(double x, double y, String type, Object... params) {
-        if (iterator != null) {
+        if (iterator != null && iterator.current() != null) {
             double normX = x / imageView.getFitWidth();
             double normY = y / imageView.getFitHeight();
 
@@ -190,7 +545,8 @@ public class HelloController {
                     "user1", type, params[0], normX, normY
             );
 
-            emotionManager.saveEmotion(iterator.getCurrentFile(), emotion);
+            ImageWithEmotions image = iterator.current();
+            emotionManager.saveEmotion(image.getImageFile(), image.getImageHash(), image.getScannedFileSize(), emotion);
             iterator.addEmotionToCurrent(emotion);
             displayEmotion(emotion);
 
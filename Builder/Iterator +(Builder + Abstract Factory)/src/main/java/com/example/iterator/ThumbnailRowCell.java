@@ -0,0 +1,140 @@
+package com.example.iterator;
+
+import com.example.iterator.model.ImageAggregate;
+import com.example.iterator.model.ImageWithEmotions;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/*строка сетки миниатюр: ListView виртуализирует строки, поэтому узлы есть только у видимых
+  плиток, а при прокрутке ячейки переиспользуются под другие строки */
+final class ThumbnailRowCell extends ListCell<Integer> {
+
+    static final double TILE_WIDTH = ThumbnailService.SIZE + 16;
+    static final double ROW_HEIGHT = ThumbnailService.SIZE + 36;
+
+    private final Supplier<ImageAggregate> slides;
+    private final IntSupplier columns;
+    private final ThumbnailService thumbnails;
+    private final IntConsumer onOpen;
+
+    private final HBox row = new HBox(8);
+    private final List<Tile> tiles = new ArrayList<>();
+
+    ThumbnailRowCell(Supplier<ImageAggregate> slides, IntSupplier columns,
+                     ThumbnailService thumbnails, IntConsumer onOpen) {
+        this.slides = slides;
+        this.columns = columns;
+        this.thumbnails = thumbnails;
+        this.onOpen = onOpen;
+        row.setAlignment(Pos.CENTER_LEFT);
+        setStyle("-fx-padding: 4 8;");
+    }
+
+    @Override
+    protected void updateItem(Integer rowIndex, boolean empty) {
+        super.updateItem(rowIndex, empty);
+        ImageAggregate album = slides.get();
+        if (empty || rowIndex == null || album == null) {
+            tiles.forEach(Tile::clear);
+            setGraphic(null);
+            return;
+        }
+
+        //число колонок меняется вместе с шириной окна
+        int count = columns.getAsInt();
+        while (tiles.size() < count) {
+            Tile tile = new Tile();
+            tiles.add(tile);
+            row.getChildren().add(tile.box);
+        }
+        while (tiles.size() > count) {
+            Tile tile = tiles.remove(tiles.size() - 1);
+            tile.clear();
+            row.getChildren().remove(tile.box);
+        }
+
+        for (int column = 0; column < count; column++) {
+            int index = rowIndex * count + column;
+            tiles.get(column).show(album, index);
+        }
+        setGraphic(row);
+    }
+
+    private final class Tile {
+        final ImageView view = new ImageView();
+        final Label name = new Label();
+        final VBox box = new VBox(4, view, name);
+        ImageAggregate album;
+        int index = -1;
+        ImageWithEmotions image;
+        ThumbnailService.Request request;
+
+        Tile() {
+            view.setFitWidth(ThumbnailService.SIZE);
+            view.setFitHeight(ThumbnailService.SIZE);
+            view.setPreserveRatio(true);
+            name.setMaxWidth(ThumbnailService.SIZE);
+            box.setAlignment(Pos.CENTER);
+            box.setPrefWidth(TILE_WIDTH);
+            box.setOnMouseClicked(event -> {
+                if (index >= 0 && event.getClickCount() == 2) {
+                    onOpen.accept(index);
+                }
+            });
+        }
+
+        void show(ImageAggregate newAlbum, int newIndex) {
+            if (newIndex >= newAlbum.size()) {
+                clear();
+                box.setVisible(false);
+                return;
+            }
+            box.setVisible(true);
+            /*та же плитка - запрос уже выполнен или в очереди; альбом меняется на месте (AlbumWatcher),
+              поэтому сравнивается и сам файл: по индексу мог оказаться другой или переписанный */
+            ImageWithEmotions newImage = newAlbum.getImage(newIndex);
+            if (newAlbum == album && newIndex == index && sameFile(newImage)) return;
+
+            clear();
+            album = newAlbum;
+            index = newIndex;
+            image = newImage;
+            name.setText(newImage.getFileName());
+            request = thumbnails.request(newImage, thumbnail -> {
+                if (image == newImage) {
+                    view.setImage(thumbnail);
+                }
+            });
+        }
+
+        //эмоции на миниатюру не влияют - достаточно пути и содержимого
+        private boolean sameFile(ImageWithEmotions other) {
+            return image != null
+                    && Objects.equals(image.getFilePath(), other.getFilePath())
+                    && Objects.equals(image.getImageHash(), other.getImageHash());
+        }
+
+        void clear() {
+            if (request != null) {
+                request.cancel();
+                request = null;
+            }
+            album = null;
+            index = -1;
+            image = null;
+            view.setImage(null);
+            name.setText("");
+        }
+    }
+}
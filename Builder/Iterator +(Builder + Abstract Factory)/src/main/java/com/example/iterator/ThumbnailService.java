@@ -0,0 +1,142 @@
+package com.example.iterator;
+
+import com.example.iterator.model.DecodedImageCache;
+import com.example.iterator.model.ImageWithEmotions;
+import com.example.iterator.model.ThumbnailStore;
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/*миниатюры для сетки: ограниченный пул фоновых потоков с очередью по приоритету
+  последний запрос - первый в очереди: ячейки, которые только что появились на экране, важнее тех,
+  что пролистали; ячейка отменяет свой запрос, когда ее переиспользуют под другое изображение
+  очередь ограничена - при переполнении выбрасывается самый старый запрос
+  готовые миниатюры хранятся в DecodedImageCache под размером SIZE x SIZE и в ThumbnailStore альбома:
+  память -> хранилище (чтение из отображенного файла) -> декодирование исходного файла */
+final class ThumbnailService {
+
+    static final int SIZE = 160;
+    private static final int MAX_PENDING = 512;
+
+    private final DecodedImageCache cache;
+    private final ThreadPoolExecutor executor;
+    private final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile ThumbnailStore store; //хранилище открытого альбома, может отсутствовать
+
+    ThumbnailService(DecodedImageCache cache) {
+        this.cache = cache;
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, queue, task -> {
+            Thread thread = new Thread(task, "thumbnail-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1); //поток FX отрисовывает прокрутку
+            return thread;
+        });
+    }
+
+    void setStore(ThumbnailStore store) {
+        this.store = store;
+    }
+
+    /*onReady вызывается в потоке FX; если миниатюра уже в кэше - сразу, и возвращается null */
+    Request request(ImageWithEmotions image, Consumer<Image> onReady) {
+        Image cached = cache.get(image.getImageHash(), SIZE, SIZE);
+        if (cached != null) {
+            onReady.accept(cached);
+            return null;
+        }
+
+        Request request = new Request(image, onReady, sequence.incrementAndGet());
+        if (queue.size() >= MAX_PENDING) {
+            dropOldest();
+        }
+        executor.execute(request);
+        return request;
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void dropOldest() {
+        Request oldest = null;
+        for (Runnable task : queue) {
+            Request request = (Request) task;
+            if (oldest == null || request.order < oldest.order) {
+                oldest = request;
+            }
+        }
+        if (oldest != null) {
+            oldest.cancel();
+        }
+    }
+
+    final class Request implements Runnable, Comparable<Request> {
+        private final ImageWithEmotions source;
+        private final Consumer<Image> onReady;
+        private final long order;
+        private volatile boolean cancelled = false;
+
+        private Request(ImageWithEmotions source, Consumer<Image> onReady, long order) {
+            this.source = source;
+            this.onReady = onReady;
+            this.order = order;
+        }
+
+        void cancel() {
+            cancelled = true;
+            queue.remove(this);
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) return;
+
+            //пока ждали, ту же миниатюру мог сделать другой запрос
+            String fingerprint = source.getImageHash();
+            Image image = cache.get(fingerprint, SIZE, SIZE);
+            if (image == null) {
+                image = load(source);
+                if (image == null) return;
+                cache.put(fingerprint, SIZE, SIZE, image);
+            }
+
+            Image ready = image;
+            Platform.runLater(() -> {
+                if (!cancelled) {
+                    onReady.accept(ready);
+                }
+            });
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            return Long.compare(other.order, order); //новые раньше
+        }
+    }
+
+    private Image load(ImageWithEmotions source) {
+        ThumbnailStore current = store;
+        Image stored = current != null ? current.read(source) : null;
+        if (stored != null) return stored;
+
+        try {
+            Image image = new Image(source.getImageFile().toURI().toString(), SIZE, SIZE, true, true, false);
+            if (image.isError()) return null;
+            if (current != null) {
+                current.write(source, image);
+            }
+            return image;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.iterator.emotions;
+
+/*одно изменение эмоций изображения - добавление или удаление
+  у добавления может быть имя и размер файла - для индекса имен, который пишет поток отложенной записи */
+public final class EmotionChange {
+
+    public enum Kind { ADD, REMOVE }
+
+    private final Kind kind;
+    private final String imageHash;
+    private final Emotion emotion;
+    private final String emotionId;
+    private final String fileName; //null - не известно
+    private final long fileSize;
+
+    private EmotionChange(Kind kind, String imageHash, Emotion emotion, String emotionId,
+                          String fileName, long fileSize) {
+        this.kind = kind;
+        this.imageHash = imageHash;
+        this.emotion = emotion;
+        this.emotionId = emotionId;
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+    }
+
+    public static EmotionChange add(String imageHash, Emotion emotion) {
+        return new EmotionChange(Kind.ADD, imageHash, emotion, emotion.getId(), null, 0);
+    }
+
+    public static EmotionChange add(String imageHash, Emotion emotion, String fileName, long fileSize) {
+        return new EmotionChange(Kind.ADD, imageHash, emotion, emotion.getId(), fileName, fileSize);
+    }
+
+    public static EmotionChange remove(String imageHash, String emotionId) {
+        return new EmotionChange(Kind.REMOVE, imageHash, null, emotionId, null, 0);
+    }
+
+    public Kind getKind() { return kind; }
+    public String getImageHash() { return imageHash; }
+    public Emotion getEmotion() { return emotion; }
+    public String getEmotionId() { return emotionId; }
+    public String getFileName() { return fileName; }
+    public long getFileSize() { return fileSize; }
+}
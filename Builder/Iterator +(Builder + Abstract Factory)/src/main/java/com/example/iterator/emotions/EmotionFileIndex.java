@@ -0,0 +1,133 @@
+package com.example.iterator.emotions;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*вторичный индекс эмоций по файлам: имя -> хэши, (размер, имя) -> хэш
+  нужен, когда хэш файла изменился (файл перемещен, пересохранен), а эмоции записаны под старым хэшем
+  записи (хэш, имя, размер) дописываются в emotions_files.idx потоком отложенной записи EmotionManager */
+final class EmotionFileIndex implements Closeable {
+
+    static final String INDEX_FILE = "emotions_files.idx";
+    private static final int MAGIC = 0x45464931; //"EFI1"
+
+    private final Path indexFile;
+    //хэши под одним именем, последний записанный - в конце; списки неизменяемые
+    private final Map<String, List<String>> hashesByName = new ConcurrentHashMap<>();
+    private final Map<String, String> hashBySizeAndName = new ConcurrentHashMap<>();
+    private DataOutputStream out; //под монитором this
+    private boolean foreign = false; //файл не в нашем формате - при первой записи начинается заново
+
+    EmotionFileIndex(Path directory) {
+        this.indexFile = directory.resolve(INDEX_FILE);
+        load();
+    }
+
+    /*хэш, под которым в последний раз сохранялись эмоции файла с таким же именем и размером */
+    String find(String fileName, long size) {
+        return hashBySizeAndName.get(key(fileName, size));
+    }
+
+    /*все хэши файлов с таким именем, начиная с последнего */
+    List<String> candidates(String fileName) {
+        List<String> hashes = hashesByName.get(fileName);
+        if (hashes == null) return List.of();
+
+        List<String> result = new ArrayList<>(hashes);
+        Collections.reverse(result);
+        return result;
+    }
+
+    void record(String imageHash, String fileName, long size) {
+        if (!remember(imageHash, fileName, size)) return;
+
+        synchronized (this) {
+            try {
+                if (out == null) {
+                    boolean fresh = foreign || !Files.exists(indexFile) || Files.size(indexFile) == 0;
+                    out = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(indexFile.toFile(), !fresh)));
+                    if (fresh) {
+                        out.writeInt(MAGIC);
+                    }
+                }
+                out.writeUTF(imageHash);
+                out.writeUTF(fileName);
+                out.writeLong(size);
+                out.flush();
+            } catch (IOException e) {
+                System.err.println("Error saving emotion file index: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    //false, если такая запись уже есть
+    private boolean remember(String imageHash, String fileName, long size) {
+        String previous = hashBySizeAndName.put(key(fileName, size), imageHash);
+        boolean[] added = {false};
+        hashesByName.compute(fileName, (name, hashes) -> {
+            if (hashes != null && !hashes.isEmpty() && hashes.get(hashes.size() - 1).equals(imageHash)) {
+                return hashes;
+            }
+            List<String> updated = hashes == null ? new ArrayList<>() : new ArrayList<>(hashes);
+            updated.remove(imageHash);
+            updated.add(imageHash);
+            added[0] = true;
+            return List.copyOf(updated);
+        });
+        return added[0] || !imageHash.equals(previous);
+    }
+
+    /*индекс небольшой, читается целиком; оборванная при сбое последняя запись отрезается,
+      чтобы новые записи не дописывались после нее */
+    private void load() {
+        if (!Files.exists(indexFile)) return;
+
+        try {
+            byte[] data = Files.readAllBytes(indexFile);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            long good = 0;
+            try {
+                if (in.readInt() != MAGIC) {
+                    System.err.println("Unknown emotion file index format, ignoring: " + indexFile);
+                    foreign = true;
+                    return;
+                }
+                good = data.length - in.available();
+                while (in.available() > 0) {
+                    remember(in.readUTF(), in.readUTF(), in.readLong());
+                    good = data.length - in.available();
+                }
+            } catch (EOFException e) {
+                //оборванная последняя запись
+            }
+            if (good < data.length) {
+                try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.WRITE)) {
+                    channel.truncate(good);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading emotion file index: " + e.getMessage());
+        }
+    }
+
+    private static String key(String fileName, long size) {
+        return size + "/" + fileName;
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.iterator.emotions;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/*журнал операций с эмоциями: одна строка на операцию, "crc32 json"
+  запись - одно дописывание в конец файла, стоимость не зависит от объема истории
+  каждая пачка сбрасывается на диск (force) до возврата: подтвержденная пачка переживает и сбой ОС,
+  цена - один fsync на пачку отложенной записи, а не на операцию */
+class EmotionJournal implements Closeable {
+
+    private final Path path;
+    private final ObjectWriter lineWriter;
+    private FileChannel channel;
+    private int records = 0;
+
+    EmotionJournal(Path path, ObjectMapper objectMapper) {
+        this.path = path;
+        this.lineWriter = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /*проигрывает записи журнала; поврежденная запись в середине пропускается (остальные записи целы),
+      отрезается только последняя строка без перевода строки - она не была дописана */
+    static int replay(Path path, ObjectMapper objectMapper, Consumer<Map<String, Object>> consumer)
+            throws IOException {
+        if (!Files.exists(path)) return 0;
+
+        byte[] data = Files.readAllBytes(path);
+        int count = 0;
+        int skipped = 0;
+        int lineStart = 0;
+
+        while (lineStart < data.length) {
+            int lineEnd = lineStart;
+            while (lineEnd < data.length && data[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            if (lineEnd == data.length) break; //запись без перевода строки - не дописана
+
+            Map<String, Object> record = parseLine(data, lineStart, lineEnd, objectMapper);
+            if (record != null) {
+                consumer.accept(record);
+                count++;
+            } else if (lineEnd > lineStart) {
+                skipped++;
+            }
+            lineStart = lineEnd + 1;
+        }
+
+        if (skipped > 0) {
+            System.err.println("Emotion journal " + path.getFileName() + ": skipped " + skipped
+                    + " damaged records");
+        }
+        if (lineStart < data.length) {
+            System.err.println("Emotion journal " + path.getFileName() + ": dropping "
+                    + (data.length - lineStart) + " bytes of an incomplete record");
+            try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                ch.truncate(lineStart);
+            }
+        }
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> parseLine(byte[] data, int start, int end, ObjectMapper objectMapper) {
+        int separator = start + 8;
+        if (end - start < 10 || data[separator] != ' ') return null;
+
+        try {
+            long expected = Long.parseLong(new String(data, start, 8, StandardCharsets.US_ASCII), 16);
+            CRC32 crc = new CRC32();
+            crc.update(data, separator + 1, end - separator - 1);
+            if (crc.getValue() != expected) return null;
+
+            return objectMapper.readValue(data, separator + 1, end - separator - 1, Map.class);
+        } catch (NumberFormatException | IOException e) {
+            return null;
+        }
+    }
+
+    void open(int existingRecords) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        records = existingRecords;
+    }
+
+    void append(Map<String, Object> record) throws IOException {
+        appendAll(List.of(record));
+    }
+
+    /*пачка записей уходит на диск одной операцией записи и одним force */
+    void appendAll(List<Map<String, Object>> batch) throws IOException {
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        for (Map<String, Object> record : batch) {
+            byte[] json = lineWriter.writeValueAsBytes(record);
+            CRC32 crc = new CRC32();
+            crc.update(json);
+
+            String checksum = Long.toHexString(crc.getValue());
+            for (int i = checksum.length(); i < 8; i++) {
+                lines.write('0');
+            }
+            lines.write(checksum.getBytes(StandardCharsets.US_ASCII));
+            lines.write(' ');
+            lines.write(json);
+            lines.write('\n');
+        }
+
+        //неудачная пачка отрезается: ее повторят, и оборванная строка не должна остаться перед повтором
+        long start = channel.size();
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toByteArray());
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false); //данные и длина файла, время изменения не нужно
+        } catch (IOException e) {
+            try {
+                channel.truncate(start);
+            } catch (IOException ignored) {
+                //хвост отрежет replay при следующем открытии
+            }
+            throw e;
+        }
+        records += batch.size();
+    }
+
+    int size() {
+        return records;
+    }
+
+    /*переносит текущий журнал в target и начинает новый пустой */
+    void rotate(Path target) throws IOException {
+        close();
+        Files.move(path, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open(0);
+    }
+
+    /*отбрасывает все записи - их содержимое уже попало в снимок */
+    void truncate() throws IOException {
+        channel.truncate(0);
+        records = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
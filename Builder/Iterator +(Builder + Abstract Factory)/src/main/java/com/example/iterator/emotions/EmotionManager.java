@@ -1,162 +1,266 @@
 package com.example.iterator.emotions;
 
-import com.example.iterator.model.ImageWithEmotions;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import java.io.*;
-import java.util.*;
+import com.example.iterator.model.FingerprintService;
 import java.io.*;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/*эмоции хранятся по хэшу изображения
+  изображения альбома передают свой хэш - он посчитан выбранным для альбома FingerprintMode;
+  методы, принимающие только File, считают хэш сами в режиме METADATA (как ImageWithEmotions этого пакета),
+  поэтому для альбома в режиме CONTENT они видят другие ключи и смешивать эти два пути нельзя */
 public class EmotionManager {
-    private static final String EMOTIONS_FILE = "emotions_data.json";
-    private static EmotionManager instance;
-    private final ObjectMapper objectMapper;
+    private static final String STORAGE_PROPERTY = "emotions.storage"; //json (по умолчанию) или binary
 
-    //эмоции по хэшу изображения
-    private final Map<String, List<Emotion>> emotionsByImageHash = new HashMap<>();
+    private final FingerprintService fingerprintService;
+    private final EmotionStorage storage;
+    private final EmotionFileIndex fileIndex;
+    private volatile WriteBehindWriter<EmotionChange> writer;
+    //submit() берет чтение, замена писателя - запись, чтобы изменения не попали в закрытый писатель
+    private final ReadWriteLock writerLock = new ReentrantReadWriteLock();
+
+    /*эмоции по хэшу изображения; списки неизменяемые и заменяются целиком через compute(),
+      поэтому чтение не блокируется, а запись блокирует только свое изображение */
+    private final ConcurrentHashMap<String, List<Emotion>> emotionsByImageHash = new ConcurrentHashMap<>();
+    //сохраненные, но еще не прочитанные из хранилища изображения
+    private final Set<String> unloadedHashes = ConcurrentHashMap.newKeySet();
+    /*изменения попадают сюда внутри compute() - порядок тот же, что в памяти, и ожидания под блокировкой карты нет;
+      в писатель они переносятся уже снаружи, под submitLock, в том же порядке */
+    private final Queue<EmotionChange> outbox = new ConcurrentLinkedQueue<>();
+    private final Object submitLock = new Object();
 
     private EmotionManager() {
-        objectMapper = new ObjectMapper();
-        objectMapper.enable(com.fasterxml.jackson.databind.SerializationFeature.INDENT_OUTPUT);
-        loadEmotions();
+        this(FingerprintService.getInstance(), openStorage(System.getProperty(STORAGE_PROPERTY, "json")),
+                Path.of(""), FlushPolicy.defaults());
+    }
+
+    //для тестов: хранилище и индекс имен в своем каталоге
+    EmotionManager(FingerprintService fingerprintService, EmotionStorage storage, Path directory, FlushPolicy policy) {
+        this.fingerprintService = fingerprintService;
+        this.storage = storage;
+        this.fileIndex = new EmotionFileIndex(directory);
+        unloadedHashes.addAll(storage.imageHashes());
+        writer = new WriteBehindWriter<>("emotion-writer", policy, this::writeChanges);
+    }
+
+    private static EmotionStorage openStorage(String storageType) {
+        try {
+            return EmotionStorage.getStorage(storageType, Path.of(""));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open emotion storage: " + storageType, e);
+        }
+    }
+
+    //класс-holder: экземпляр создается при первом обращении, JVM гарантирует единственность
+    private static class Holder {
+        private static final EmotionManager INSTANCE = new EmotionManager();
     }
 
     public static EmotionManager getInstance() {
-        if (instance == null) {
-            instance = new EmotionManager();
+        return Holder.INSTANCE;
+    }
+
+    /*меняет политику сброса; все, что накоплено по старой политике, записывается сразу,
+      а то, что записать не удалось, переходит в новый писатель
+      поток записи не берет ни writerLock, ни блокировки карты, поэтому ожидание здесь безопасно */
+    public void setFlushPolicy(FlushPolicy policy) {
+        writerLock.writeLock().lock();
+        try {
+            List<EmotionChange> unwritten = writer.shutdown();
+            writer = new WriteBehindWriter<>("emotion-writer", policy, this::writeChanges);
+            unwritten.forEach(writer::submit);
+        } finally {
+            writerLock.writeLock().unlock();
         }
-        return instance;
+    }
+
+    /*блокирует до записи всех изменений, сделанных до вызова; IOException - запись не удалась,
+      изменения остались в писателе и будут повторены */
+    public void flush() throws IOException {
+        submitPending();
+        writer.flush();
+    }
+
+    /*дописывает очередь и закрывает хранилище; вызывается при выходе из приложения */
+    public void close() {
+        submitPending();
+        writerLock.writeLock().lock();
+        try {
+            writer.close();
+        } finally {
+            writerLock.writeLock().unlock();
+        }
+        try {
+            fileIndex.close();
+            storage.close();
+        } catch (IOException e) {
+            System.err.println("Error closing emotion storage: " + e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getWriteStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("queueDepth", writer.getQueueDepth());
+        stats.put("flushCount", writer.getFlushCount());
+        stats.put("flushedRecords", writer.getFlushedItems());
+        stats.put("lastFlushMillis", writer.getLastFlushMillis());
+        stats.put("averageFlushMillis", writer.getAverageFlushMillis());
+        return stats;
     }
 
     public void saveEmotion(File imageFile, Emotion emotion) {
-        //ImageWithEmotions для расчета хэша
-        ImageWithEmotions tempImage = new ImageWithEmotions.Builder(imageFile).build();
-        String imageHash = tempImage.getImageHash();
+        saveEmotion(imageFile, fingerprintService.fingerprint(imageFile), imageFile.length(), emotion);
+    }
 
-        List<Emotion> emotions = emotionsByImageHash.getOrDefault(imageHash, new ArrayList<>());
-        emotions.add(emotion);
-        emotionsByImageHash.put(imageHash, emotions);
+    /*для изображений альбома: хэш и размер уже известны со сканирования, к диску этот вызов не обращается
+      (кроме первого чтения эмоций изображения из хранилища); индекс имен пишет поток отложенной записи */
+    public void saveEmotion(File imageFile, String imageHash, long fileSize, Emotion emotion) {
+        loadEmotions(imageHash);
 
-        saveEmotions();
+        emotionsByImageHash.compute(imageHash, (hash, emotions) -> {
+            List<Emotion> updated = emotions == null ? new ArrayList<>() : new ArrayList<>(emotions);
+            updated.add(emotion);
+            outbox.add(EmotionChange.add(hash, emotion, imageFile.getName(), fileSize));
+            return List.copyOf(updated);
+        });
+        submitPending();
     }
 
     public List<Emotion> getEmotions(File imageFile) {
-        ImageWithEmotions tempImage = new ImageWithEmotions.Builder(imageFile).build();
-        String imageHash = tempImage.getImageHash();
+        String imageHash = fingerprintService.fingerprint(imageFile);
 
-        List<Emotion> emotions = emotionsByImageHash.get(imageHash);
+        List<Emotion> emotions = loadEmotions(imageHash);
         if (emotions != null) {
             return new ArrayList<>(emotions);
         }
 
-        //Попробуем найти по имени файла
-        for (Map.Entry<String, List<Emotion>> entry : emotionsByImageHash.entrySet()) {
-            for (Emotion emotion : entry.getValue()) {
-                //Если в эмоции сохранен путь к файлу
-                if (emotion instanceof com.example.iterator.emotions.SmileyEmotion) {
-                    //Проверка по имени файла
-                    String storedFileName = ((SmileyEmotion) emotion)
-                            .getMetadata().get("fileName").toString(); //!// /**/
-                   if (storedFileName != null && storedFileName.equals(imageFile.getName())) {
-                        return new ArrayList<>(entry.getValue());
-                    }
-                }
-            }
-        }
-
-        return new ArrayList<>();
+        //хэш не найден - файл мог быть перемещен или пересохранен; ищем эмоции по имени файла
+        List<Emotion> remapped = findByFile(imageFile);
+        return remapped != null ? new ArrayList<>(remapped) : new ArrayList<>();
     }
 
     public void removeEmotion(File imageFile, String emotionId) {
-        ImageWithEmotions tempImage = new ImageWithEmotions.Builder(imageFile).build();
-        String imageHash = tempImage.getImageHash();
+        removeEmotion(fingerprintService.fingerprint(imageFile), emotionId);
+    }
 
-        List<Emotion> emotions = emotionsByImageHash.get(imageHash);
-        if (emotions != null) {
-            emotions.removeIf(e -> e.getId().equals(emotionId));
-            saveEmotions();
-        }
+    public void removeEmotion(String imageHash, String emotionId) {
+        loadEmotions(imageHash);
+
+        emotionsByImageHash.computeIfPresent(imageHash, (hash, emotions) -> {
+            List<Emotion> updated = new ArrayList<>(emotions);
+            if (!updated.removeIf(e -> e.getId().equals(emotionId))) return emotions;
+
+            outbox.add(EmotionChange.remove(hash, emotionId));
+            return List.copyOf(updated);
+        });
+        submitPending();
     }
 
-    @SuppressWarnings("unchecked")
-    private void loadEmotions() {
-        try {
-            File file = new File(EMOTIONS_FILE);
-            if (file.exists()) {
-                Map<String, Object> data = objectMapper.readValue(file, Map.class);
-
-                Map<String, List<Map<String, Object>>> savedEmotions =
-                        (Map<String, List<Map<String, Object>>>) data.get("emotions");
-
-                if (savedEmotions != null) {
-                    for (Map.Entry<String, List<Map<String, Object>>> entry : savedEmotions.entrySet()) {
-                        List<Emotion> emotions = new ArrayList<>();
-                        for (Map<String, Object> emotionData : entry.getValue()) {
-                            emotions.add(createEmotionFromMap(emotionData));
-                        }
-                        emotionsByImageHash.put(entry.getKey(), emotions);
-                    }
+    /*файл переписан и получил новый хэш: эмоции переносятся под новый ключ (remove под старым, add под новым),
+      иначе удаление по новому хэшу ничего не найдет; переносятся только переданные эмоции -
+      под старым хэшем могут оставаться эмоции копии файла с тем же содержимым */
+    public void moveEmotions(String oldHash, File imageFile, String newHash, long fileSize, List<Emotion> emotions) {
+        if (oldHash.equals(newHash) || emotions.isEmpty()) return;
+        loadEmotions(oldHash);
+        loadEmotions(newHash);
+
+        Set<String> ids = new HashSet<>();
+        for (Emotion emotion : emotions) {
+            ids.add(emotion.getId());
+        }
+        emotionsByImageHash.computeIfPresent(oldHash, (hash, stored) -> {
+            List<Emotion> kept = new ArrayList<>(stored.size());
+            for (Emotion emotion : stored) {
+                if (ids.contains(emotion.getId())) {
+                    outbox.add(EmotionChange.remove(hash, emotion.getId()));
+                } else {
+                    kept.add(emotion);
                 }
             }
-        } catch (Exception e) {
-            System.err.println("Error loading emotions: " + e.getMessage());
-        }
+            return kept.size() == stored.size() ? stored : List.copyOf(kept);
+        });
+        emotionsByImageHash.compute(newHash, (hash, stored) -> {
+            List<Emotion> updated = stored == null ? new ArrayList<>() : new ArrayList<>(stored);
+            for (Emotion emotion : emotions) {
+                if (updated.stream().noneMatch(e -> e.getId().equals(emotion.getId()))) {
+                    updated.add(emotion);
+                    outbox.add(EmotionChange.add(hash, emotion, imageFile.getName(), fileSize));
+                }
+            }
+            return List.copyOf(updated);
+        });
+        submitPending();
     }
 
-    private Emotion createEmotionFromMap(Map<String, Object> data) {
+    /*эмоции изображения, при необходимости дочитанные из хранилища
+      чтение идет внутри computeIfAbsent, поэтому файл читается один раз, даже если просят несколько потоков */
+    private List<Emotion> loadEmotions(String imageHash) {
+        List<Emotion> emotions = emotionsByImageHash.get(imageHash);
+        if (emotions != null || !unloadedHashes.contains(imageHash)) return emotions;
 
-        String type = (String) data.get("type");
+        emotions = emotionsByImageHash.computeIfAbsent(imageHash, hash -> {
+            try {
+                return List.copyOf(storage.read(hash));
+            } catch (IOException e) {
+                System.err.println("Error loading emotions for " + hash + ": " + e.getMessage());
+                return List.of();
+            }
+        });
+        //убираем только после вставки в карту - иначе другой поток мог бы увидеть изображение "без эмоций"
+        unloadedHashes.remove(imageHash);
+        return emotions;
+    }
 
-        if ("smiley".equals(type)) {
-            SmileyEmotion emotion = new SmileyEmotion();
-            emotion.setId((String) data.get("id"));
-            emotion.setUserId((String) data.get("userId"));
-            emotion.setTimestamp((Long) data.get("timestamp"));
-            emotion.setPositionX((Double) data.get("positionX"));
-            emotion.setPositionY((Double) data.get("positionY"));
-            emotion.setSmileyType(SmileyEmotion.SmileyType.valueOf((String) data.get("smileyType")));
-            return emotion;
+    /*сначала точное совпадение (размер, имя), затем последний хэш с тем же именем, у которого есть эмоции */
+    private List<Emotion> findByFile(File imageFile) {
+        String fileName = imageFile.getName();
+        List<String> candidates = fileIndex.candidates(fileName);
+        if (candidates.isEmpty()) return null; //обычный случай - у файла просто нет эмоций
+
+        String sameFile = fileIndex.find(fileName, imageFile.length());
+        if (sameFile != null) {
+            List<Emotion> emotions = loadEmotions(sameFile);
+            if (emotions != null && !emotions.isEmpty()) return emotions;
         }
 
+        for (String candidate : candidates) {
+            List<Emotion> emotions = loadEmotions(candidate);
+            if (emotions != null && !emotions.isEmpty()) return emotions;
+        }
         return null;
     }
 
-    private void saveEmotions() {
-        try {
-            Map<String, Object> saveData = new HashMap<>();
-            saveData.put("version", "1.0");
-            saveData.put("savedAt", new Date().toString());
-
-            Map<String, List<Map<String, Object>>> serializableEmotions = new HashMap<>();
-            for (Map.Entry<String, List<Emotion>> entry : emotionsByImageHash.entrySet()) {
-                List<Map<String, Object>> emotionList = new ArrayList<>();
-                for (Emotion emotion : entry.getValue()) {
-                    emotionList.add(convertEmotionToMap(emotion));
-                }
-                serializableEmotions.put(entry.getKey(), emotionList);
+    /*переносит outbox в писатель; может ждать места в очереди, поэтому вызывается вне compute() */
+    private void submitPending() {
+        synchronized (submitLock) {
+            EmotionChange change;
+            while ((change = outbox.poll()) != null) {
+                submit(change);
             }
-
-            saveData.put("emotions", serializableEmotions);
-            objectMapper.writeValue(new File(EMOTIONS_FILE), saveData);
-
-        } catch (IOException e) {
-            System.err.println("Error saving emotions: " + e.getMessage());
         }
     }
 
-    private Map<String, Object> convertEmotionToMap(Emotion emotion) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("type", emotion.getType());
-        map.put("id", emotion.getId());
-        map.put("userId", emotion.getUserId());
-        map.put("timestamp", emotion.getTimestamp());
-        map.put("positionX", emotion.getPositionX());
-        map.put("positionY", emotion.getPositionY());
-
-        if (emotion instanceof SmileyEmotion) {
-            map.put("smileyType", ((SmileyEmotion) emotion).getSmileyType().name());
+    private void submit(EmotionChange change) {
+        writerLock.readLock().lock();
+        try {
+            writer.submit(change);
+        } finally {
+            writerLock.readLock().unlock();
         }
+    }
 
-        return map;
+    /*вызывается потоком отложенной записи; при IOException писатель повторит ту же пачку,
+      поэтому индекс имен пишется только после успешной записи */
+    private void writeChanges(List<EmotionChange> changes) throws IOException {
+        storage.write(changes);
+        for (EmotionChange change : changes) {
+            if (change.getFileName() != null) {
+                fileIndex.record(change.getImageHash(), change.getFileName(), change.getFileSize());
+            }
+        }
     }
 }
@@ -0,0 +1,296 @@
+package com.example.iterator.emotions;
+
+import com.example.iterator.CustomEmotion;
+import com.example.iterator.TextEmotion;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/*потоковое чтение и запись emotions_data.json через JsonParser/JsonGenerator
+  без промежуточных Map: токены сразу превращаются в объекты Emotion
+  index() запоминает только смещения массивов эмоций, сами эмоции читаются по требованию */
+final class EmotionSnapshot {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final byte[] QUOTE = {'"'};
+
+    private EmotionSnapshot() {}
+
+    /*хэш изображения -> байтовое смещение его массива эмоций в файле */
+    static Map<String, Long> index(Path file) throws IOException {
+        Map<String, Long> offsets = new HashMap<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(file.toFile())) {
+            if (!moveToEmotions(parser)) return offsets;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String imageHash = parser.getCurrentName();
+                parser.nextToken();
+                offsets.put(imageHash, parser.getTokenLocation().getByteOffset());
+                parser.skipChildren();
+            }
+        }
+        return offsets;
+    }
+
+    /*читает массив эмоций, начинающийся со смещения offset */
+    static List<Emotion> read(Path file, long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.position(offset);
+            InputStream in = Channels.newInputStream(channel);
+            try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+                if (parser.nextToken() != JsonToken.START_ARRAY) {
+                    throw new IOException("Emotion array expected at offset " + offset);
+                }
+                return readEmotions(parser);
+            }
+        }
+    }
+
+    static Map<String, List<Emotion>> readAll(Path file) throws IOException {
+        Map<String, List<Emotion>> result = new HashMap<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(file.toFile())) {
+            if (!moveToEmotions(parser)) return result;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String imageHash = parser.getCurrentName();
+                parser.nextToken();
+                result.put(imageHash, readEmotions(parser));
+            }
+        }
+        return result;
+    }
+
+    /*новый снимок в target: массивы изображений не из changed копируются из source байтами как есть,
+      разбираются только изображения из changed - update меняет их список на месте (пустой список не пишется);
+      в памяти одновременно только одно изображение; возвращает смещения массивов в target
+      атомарную замену старого снимка делает вызывающий */
+    static Map<String, Long> rewrite(Path source, Path target, Set<String> changed,
+                                     BiConsumer<String, List<Emotion>> update) throws IOException {
+        Map<String, Long> offsets = new HashMap<>();
+        Set<String> remaining = new HashSet<>(changed);
+        try (SnapshotOutput out = new SnapshotOutput(target)) {
+            out.write("{\n  \"version\" : \"1.0\",\n  \"savedAt\" : ");
+            out.writeQuoted(new Date().toString());
+            out.write(",\n  \"emotions\" : {");
+
+            if (Files.exists(source)) {
+                try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ);
+                     JsonParser parser = JSON_FACTORY.createParser(Channels.newInputStream(channel.position(0)))) {
+                    if (moveToEmotions(parser)) {
+                        //parser читает канал последовательно, копирование идет позиционным чтением того же канала
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String imageHash = parser.getCurrentName();
+                            parser.nextToken();
+                            if (remaining.remove(imageHash)) {
+                                List<Emotion> emotions = readEmotions(parser);
+                                update.accept(imageHash, emotions);
+                                out.writeEmotions(imageHash, emotions, offsets);
+                            } else {
+                                long start = parser.getTokenLocation().getByteOffset();
+                                parser.skipChildren();
+                                long end = parser.getTokenLocation().getByteOffset() + 1; //после ']'
+                                offsets.put(imageHash, out.beginArray(imageHash));
+                                out.copy(channel, start, end);
+                            }
+                        }
+                    }
+                }
+            }
+            //изображения, которых в старом снимке не было
+            for (String imageHash : remaining) {
+                List<Emotion> emotions = new ArrayList<>();
+                update.accept(imageHash, emotions);
+                out.writeEmotions(imageHash, emotions, offsets);
+            }
+            out.write("\n  }\n}");
+        }
+        return offsets;
+    }
+
+    //пропускает поля верхнего уровня до объекта "emotions"
+    private static boolean moveToEmotions(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) return false;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("emotions".equals(field) && value == JsonToken.START_OBJECT) {
+                return true;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    private static List<Emotion> readEmotions(JsonParser parser) throws IOException {
+        List<Emotion> emotions = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            Emotion emotion = readEmotion(parser);
+            if (emotion != null) {
+                emotions.add(emotion);
+            }
+        }
+        return emotions;
+    }
+
+    private static Emotion readEmotion(JsonParser parser) throws IOException {
+        String type = null, id = null, userId = null;
+        String smileyType = null, text = null, color = null, emojiCode = null, description = null;
+        long timestamp = 0;
+        double positionX = 0, positionY = 0;
+
+        //порядок полей не гарантирован, поэтому сначала собираем значения
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_NULL) continue;
+
+            switch (field) {
+                case "type": type = parser.getText(); break;
+                case "id": id = parser.getText(); break;
+                case "userId": userId = parser.getText(); break;
+                case "timestamp": timestamp = parser.getLongValue(); break;
+                case "positionX": positionX = parser.getDoubleValue(); break;
+                case "positionY": positionY = parser.getDoubleValue(); break;
+                case "smileyType": smileyType = parser.getText(); break;
+                case "text": text = parser.getText(); break;
+                case "color": color = parser.getText(); break;
+                case "emojiCode": emojiCode = parser.getText(); break;
+                case "description": description = parser.getText(); break;
+                default: parser.skipChildren();
+            }
+        }
+
+        Emotion emotion;
+        if ("smiley".equals(type)) {
+            SmileyEmotion smiley = new SmileyEmotion();
+            smiley.setSmileyType(SmileyEmotion.SmileyType.valueOf(smileyType));
+            emotion = smiley;
+        } else if ("text".equals(type)) {
+            TextEmotion textEmotion = new TextEmotion();
+            textEmotion.setText(text);
+            textEmotion.setColor(color);
+            emotion = textEmotion;
+        } else if ("custom".equals(type)) {
+            CustomEmotion custom = new CustomEmotion();
+            custom.setEmojiCode(emojiCode);
+            custom.setDescription(description);
+            emotion = custom;
+        } else {
+            return null;
+        }
+
+        emotion.setId(id);
+        emotion.setUserId(userId);
+        emotion.setTimestamp(timestamp);
+        emotion.setPositionX(positionX);
+        emotion.setPositionY(positionY);
+        return emotion;
+    }
+
+    /*запись нового снимка со счетчиком позиции - смещения массивов известны без повторного разбора */
+    private static final class SnapshotOutput implements Closeable {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[64 * 1024];
+        private long position = 0;
+        private boolean first = true;
+
+        SnapshotOutput(Path target) throws IOException {
+            this.out = new BufferedOutputStream(Files.newOutputStream(target));
+        }
+
+        void write(String text) throws IOException {
+            write(text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void write(byte[] bytes) throws IOException {
+            out.write(bytes);
+            position += bytes.length;
+        }
+
+        void writeQuoted(String text) throws IOException {
+            write(QUOTE);
+            write(JsonStringEncoder.getInstance().quoteAsUTF8(text));
+            write(QUOTE);
+        }
+
+        //"хэш" : - возвращает смещение массива, который за ним последует
+        long beginArray(String imageHash) throws IOException {
+            write(first ? "\n    " : ",\n    ");
+            first = false;
+            writeQuoted(imageHash);
+            write(" : ");
+            return position;
+        }
+
+        void writeEmotions(String imageHash, List<Emotion> emotions, Map<String, Long> offsets) throws IOException {
+            if (emotions.isEmpty()) return;
+
+            offsets.put(imageHash, beginArray(imageHash));
+            ByteArrayOutputStream array = new ByteArrayOutputStream();
+            //массив изображения - одной строкой
+            try (JsonGenerator generator = JSON_FACTORY.createGenerator(array, JsonEncoding.UTF8)) {
+                generator.writeStartArray();
+                for (Emotion emotion : emotions) {
+                    writeEmotion(generator, emotion);
+                }
+                generator.writeEndArray();
+            }
+            write(array.toByteArray());
+        }
+
+        void copy(FileChannel source, long start, long end) throws IOException {
+            ByteBuffer chunk = ByteBuffer.wrap(buffer);
+            long at = start;
+            while (at < end) {
+                chunk.clear().limit((int) Math.min(buffer.length, end - at));
+                int read = source.read(chunk, at);
+                if (read < 0) throw new EOFException("Emotion snapshot ended at " + at);
+                out.write(buffer, 0, read);
+                at += read;
+                position += read;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static void writeEmotion(JsonGenerator generator, Emotion emotion) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("type", emotion.getType());
+        generator.writeStringField("id", emotion.getId());
+        generator.writeStringField("userId", emotion.getUserId());
+        generator.writeNumberField("timestamp", emotion.getTimestamp());
+        generator.writeNumberField("positionX", emotion.getPositionX());
+        generator.writeNumberField("positionY", emotion.getPositionY());
+
+        if (emotion instanceof SmileyEmotion) {
+            generator.writeStringField("smileyType", ((SmileyEmotion) emotion).getSmileyType().name());
+        } else if (emotion instanceof TextEmotion) {
+            generator.writeStringField("text", ((TextEmotion) emotion).getText());
+            generator.writeStringField("color", ((TextEmotion) emotion).getColor());
+        } else if (emotion instanceof CustomEmotion) {
+            generator.writeStringField("emojiCode", ((CustomEmotion) emotion).getEmojiCode());
+            generator.writeStringField("description", ((CustomEmotion) emotion).getDescription());
+        }
+
+        generator.writeEndObject();
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.iterator.emotions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+/*хранилище эмоций за EmotionManager: изображения читаются по одному, изменения пишутся пачками */
+public interface EmotionStorage extends Closeable {
+
+    //хэши изображений, для которых что-то сохранено
+    Set<String> imageHashes();
+
+    List<Emotion> read(String imageHash) throws IOException;
+
+    void write(List<EmotionChange> changes) throws IOException;
+
+    static EmotionStorage getStorage(String storageType, Path directory) throws IOException {
+        switch (storageType.toLowerCase()) {
+            case "binary":
+                return new MappedEmotionStorage(directory);
+            case "json":
+            default:
+                return new JsonEmotionStorage(directory);
+        }
+    }
+}
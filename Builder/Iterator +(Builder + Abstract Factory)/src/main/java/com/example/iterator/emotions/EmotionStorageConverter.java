@@ -0,0 +1,50 @@
+package com.example.iterator.emotions;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/*перенос эмоций между хранилищами, в любую сторону:
+  java ... EmotionStorageConverter json binary [каталог] */
+public final class EmotionStorageConverter {
+    private static final int BATCH_SIZE = 10_000;
+
+    private EmotionStorageConverter() {}
+
+    //возвращает число перенесенных эмоций
+    public static long convert(EmotionStorage source, EmotionStorage target) throws IOException {
+        long converted = 0;
+        List<EmotionChange> batch = new ArrayList<>();
+
+        for (String imageHash : source.imageHashes()) {
+            for (Emotion emotion : source.read(imageHash)) {
+                batch.add(EmotionChange.add(imageHash, emotion));
+                if (batch.size() >= BATCH_SIZE) {
+                    target.write(batch);
+                    converted += batch.size();
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            target.write(batch);
+            converted += batch.size();
+        }
+        return converted;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: EmotionStorageConverter <json|binary> <json|binary> [directory]");
+            return;
+        }
+        Path directory = Path.of(args.length > 2 ? args[2] : "");
+
+        try (EmotionStorage source = EmotionStorage.getStorage(args[0], directory);
+             EmotionStorage target = EmotionStorage.getStorage(args[1], directory)) {
+            long converted = convert(source, target);
+            System.out.println("Converted " + converted + " emotions from " + args[0] + " to " + args[1]);
+        }
+    }
+}
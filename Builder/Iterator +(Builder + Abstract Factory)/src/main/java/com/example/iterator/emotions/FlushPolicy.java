@@ -0,0 +1,52 @@
+package com.example.iterator.emotions;
+
+/*когда отложенная запись сбрасывает накопленные изменения на диск:
+  по времени, по количеству или только по явному flush() */
+public final class FlushPolicy {
+    private static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+
+    private final int queueCapacity;
+    private final int maxBatchSize;
+    private final long maxDelayMillis; //-1 - без таймера
+
+    private FlushPolicy(int queueCapacity, int maxBatchSize, long maxDelayMillis) {
+        if (queueCapacity < 1 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("Queue capacity and batch size must be positive");
+        }
+        this.queueCapacity = queueCapacity;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    //не позже чем через delayMillis после первого изменения в пачке
+    public static FlushPolicy timeBased(long delayMillis, int queueCapacity) {
+        if (delayMillis < 0) {
+            throw new IllegalArgumentException("Delay cannot be negative");
+        }
+        return new FlushPolicy(queueCapacity, queueCapacity, delayMillis);
+    }
+
+    //как только накопится batchSize изменений
+    public static FlushPolicy countBased(int batchSize, int queueCapacity) {
+        return new FlushPolicy(queueCapacity, batchSize, -1);
+    }
+
+    //flush()/close(), а также заполнение очереди - тогда записывается все накопленное
+    public static FlushPolicy explicit(int queueCapacity) {
+        return new FlushPolicy(queueCapacity, Integer.MAX_VALUE, -1);
+    }
+
+    public static FlushPolicy defaults() {
+        return timeBased(200, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public int getQueueCapacity() { return queueCapacity; }
+    public int getMaxBatchSize() { return maxBatchSize; }
+    public long getMaxDelayMillis() { return maxDelayMillis; }
+
+    @Override
+    public String toString() {
+        return String.format("FlushPolicy{queue=%d, batch=%d, delayMs=%d}",
+                queueCapacity, maxBatchSize, maxDelayMillis);
+    }
+}
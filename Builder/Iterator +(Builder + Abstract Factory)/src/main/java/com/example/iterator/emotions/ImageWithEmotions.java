@@ -3,14 +3,9 @@ package com.example.iterator.emotions;
 import java.io.File;
 import java.util.*;
 
+import com.example.iterator.model.FingerprintService;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.*;
 
 public class ImageWithEmotions {
 
@@ -24,12 +19,13 @@ public class ImageWithEmotions {
         this.imageFile = builder.imageFile;
         this.imageHash = builder.imageHash;
         this.emotions = Collections.unmodifiableList(new ArrayList<>(builder.emotions));
-        this.metadata = Collections.unmodifiableMap(new HashMap<>(builder.metadata));
         this.creationDate = new Date();
 
-        if (!metadata.containsKey("createdAt")) {
-            ((HashMap<String, Object>) metadata).put("createdAt", creationDate);
+        Map<String, Object> metadataCopy = new HashMap<>(builder.metadata);
+        if (!metadataCopy.containsKey("createdAt")) {
+            metadataCopy.put("createdAt", creationDate);
         }
+        this.metadata = Collections.unmodifiableMap(metadataCopy);
     }
 
     @JsonIgnore
@@ -108,7 +104,8 @@ public class ImageWithEmotions {
                 throw new IllegalArgumentException("Image file cannot be null");
             }
             this.imageFile = imageFile;
-            this.imageHash = calculateFileHash(imageFile);
+            //всегда METADATA - тот же ключ, что у EmotionManager.getEmotions(File)
+            this.imageHash = FingerprintService.getInstance().fingerprint(imageFile);
             this.metadata.put("originalPath", imageFile.getAbsolutePath());
         }
 
@@ -180,33 +177,5 @@ public ImageWithEmotions build() {
             if (metadata != null) { this.metadata.putAll(metadata); }
             return this;
         }
-
-        private String calculateFileHash(File file) {
-            try {
-                StringBuilder hashInput = new StringBuilder();
-                hashInput.append(file.getName());
-                hashInput.append("_").append(file.length());
-
-                BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
-                hashInput.append("_").append(attrs.creationTime().toMillis());
-
-                MessageDigest md = MessageDigest.getInstance("MD5");
-                byte[] hashBytes = md.digest(hashInput.toString().getBytes());
-
-                StringBuilder hexString = new StringBuilder();
-                for (byte b : hashBytes) {
-                    String hex = Integer.toHexString(0xff & b);
-                    if (hex.length() == 1) {
-                        hexString.append('0');
-                    }
-                    hexString.append(hex);
-                }
-
-                return hexString.toString();
-
-            } catch (NoSuchAlgorithmException | IOException e) {
-                return file.getName() + "_" + file.length() + "_" + file.lastModified();
-            }
-        }
     }
 }
@@ -0,0 +1,310 @@
+package com.example.iterator.emotions;
+
+import com.example.iterator.CustomEmotion;
+import com.example.iterator.TextEmotion;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*emotions_data.json (снимок) + emotions_journal.log (изменения после снимка)
+  снимок читается лениво по смещениям, журнал держится в памяти как список изменений по изображениям
+  когда журнал вырастает, он сжимается в новый снимок в фоне */
+public class JsonEmotionStorage implements EmotionStorage {
+    static final String EMOTIONS_FILE = "emotions_data.json";
+    private static final String JOURNAL_FILE = "emotions_journal.log";
+    private static final String ROTATED_JOURNAL_FILE = "emotions_journal.log.old";
+    private static final int COMPACTION_THRESHOLD = 10_000; //записей журнала до сжатия в снимок
+    private static final long RETRY_MIN_MILLIS = 1_000;
+    private static final long RETRY_MAX_MILLIS = 10 * 60_000;
+
+    private final Path snapshotFile;
+    private final Path rotatedJournalFile;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final EmotionJournal journal;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "emotion-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean compacting = false;
+    /*после ошибки сжатие повторяется не раньше compactionRetryAt (0 - повтор не нужен), пауза удваивается;
+      .old и его изменения в rotatedChanges ждут повтора */
+    private volatile long compactionRetryAt = 0;
+    private long compactionRetryDelay = RETRY_MIN_MILLIS; //только в потоке сжатия
+
+    //состояние под монитором this
+    private Map<String, Long> snapshotOffsets = new HashMap<>();
+    private Map<String, List<EmotionChange>> rotatedChanges = new HashMap<>(); //журнал, который сейчас сжимается
+    private Map<String, List<EmotionChange>> journalChanges = new HashMap<>();
+
+    public JsonEmotionStorage(Path directory) throws IOException {
+        this.snapshotFile = directory.resolve(EMOTIONS_FILE);
+        this.rotatedJournalFile = directory.resolve(ROTATED_JOURNAL_FILE);
+        this.journal = new EmotionJournal(directory.resolve(JOURNAL_FILE), objectMapper);
+        open();
+    }
+
+    /*индекс снимка + незавершенный при сбое журнал + текущий журнал */
+    private void open() throws IOException {
+        try {
+            if (Files.exists(snapshotFile)) {
+                snapshotOffsets = EmotionSnapshot.index(snapshotFile);
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading emotions: " + e.getMessage());
+        }
+
+        boolean interruptedCompaction = Files.exists(rotatedJournalFile);
+        EmotionJournal.replay(rotatedJournalFile, objectMapper, record -> remember(rotatedChanges, record));
+        int records = EmotionJournal.replay(journal.getPath(), objectMapper, record -> remember(journalChanges, record));
+        journal.open(records);
+
+        if (interruptedCompaction) {
+            //сжатие было прервано - дописываем снимок сразу
+            rotatedChanges.forEach((imageHash, changes) ->
+                    journalChanges.computeIfAbsent(imageHash, k -> new ArrayList<>()).addAll(0, changes));
+            rotatedChanges = new HashMap<>();
+            compact(new HashMap<>(journalChanges));
+            journalChanges.clear();
+            Files.deleteIfExists(rotatedJournalFile);
+            journal.truncate();
+        }
+    }
+
+    @Override
+    public synchronized Set<String> imageHashes() {
+        Set<String> hashes = new HashSet<>(snapshotOffsets.keySet());
+        hashes.addAll(rotatedChanges.keySet());
+        hashes.addAll(journalChanges.keySet());
+        return hashes;
+    }
+
+    @Override
+    public synchronized List<Emotion> read(String imageHash) throws IOException {
+        Long offset = snapshotOffsets.get(imageHash);
+        List<Emotion> emotions = offset != null
+                ? EmotionSnapshot.read(snapshotFile, offset)
+                : new ArrayList<>();
+        apply(emotions, rotatedChanges.get(imageHash));
+        apply(emotions, journalChanges.get(imageHash));
+        return emotions;
+    }
+
+    /*вызывается одним потоком - потоком отложенной записи EmotionManager */
+    @Override
+    public void write(List<EmotionChange> changes) throws IOException {
+        List<Map<String, Object>> records = new ArrayList<>(changes.size());
+        for (EmotionChange change : changes) {
+            records.add(toRecord(change));
+        }
+        journal.appendAll(records);
+
+        synchronized (this) {
+            for (EmotionChange change : changes) {
+                journalChanges.computeIfAbsent(change.getImageHash(), k -> new ArrayList<>()).add(change);
+            }
+        }
+
+        long retryAt = compactionRetryAt;
+        boolean due = retryAt != 0
+                ? System.currentTimeMillis() >= retryAt
+                : journal.size() >= COMPACTION_THRESHOLD;
+        if (due && !compacting) {
+            startCompaction();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+
+    /*журнал уходит в .old, новые записи пишутся в чистый журнал, снимок строится в фоне
+      после неудачного сжатия .old еще на месте - повтор сжимает его же, не перенося журнал второй раз */
+    private void startCompaction() {
+        Map<String, List<EmotionChange>> frozen;
+        if (Files.exists(rotatedJournalFile)) {
+            synchronized (this) {
+                frozen = rotatedChanges;
+            }
+        } else {
+            try {
+                journal.rotate(rotatedJournalFile);
+            } catch (IOException e) {
+                System.err.println("Error rotating emotion journal: " + e.getMessage());
+                return;
+            }
+            synchronized (this) {
+                rotatedChanges = journalChanges;
+                journalChanges = new HashMap<>();
+                frozen = rotatedChanges;
+            }
+        }
+
+        compacting = true;
+        compactor.execute(() -> {
+            try {
+                compact(frozen);
+                synchronized (this) {
+                    rotatedChanges = new HashMap<>();
+                }
+                Files.deleteIfExists(rotatedJournalFile);
+                compactionRetryAt = 0;
+                compactionRetryDelay = RETRY_MIN_MILLIS;
+            } catch (IOException e) {
+                System.err.println("Error compacting emotions, retry in " + compactionRetryDelay / 1000 + " s: "
+                        + e.getMessage());
+                compactionRetryAt = System.currentTimeMillis() + compactionRetryDelay;
+                compactionRetryDelay = Math.min(compactionRetryDelay * 2, RETRY_MAX_MILLIS);
+            } finally {
+                compacting = false;
+            }
+        });
+    }
+
+    /*новый снимок = старый снимок + changes; разбираются только изображения из changes, остальные копируются
+      байтами; старый файл заменяется вместе со смещениями под монитором,
+      чтобы read() никогда не читал новый файл по старым смещениям */
+    private void compact(Map<String, List<EmotionChange>> changes) throws IOException {
+        Path tmp = snapshotFile.resolveSibling(EMOTIONS_FILE + ".tmp");
+
+        //старый снимок меняет только этот метод, поэтому читать его можно без монитора
+        Map<String, Long> newOffsets = EmotionSnapshot.rewrite(snapshotFile, tmp, changes.keySet(),
+                (imageHash, emotions) -> apply(emotions, changes.get(imageHash)));
+        //иначе после сбоя ОС переименование может оказаться на диске раньше содержимого - пустой снимок
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+
+        synchronized (this) {
+            Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            snapshotOffsets = newOffsets;
+        }
+        forceDirectory(snapshotFile.getParent());
+    }
+
+    /*сохраняет само переименование; на Windows каталог не открыть как канал - там это делает ОС */
+    private static void forceDirectory(Path directory) {
+        if (directory == null) return;
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            //не поддерживается файловой системой
+        }
+    }
+
+    /*повторное применение изменения не меняет результат - журнал может проигрываться поверх снимка */
+    private static void apply(List<Emotion> emotions, List<EmotionChange> changes) {
+        if (changes == null) return;
+
+        for (EmotionChange change : changes) {
+            if (change.getKind() == EmotionChange.Kind.ADD) {
+                if (emotions.stream().noneMatch(e -> Objects.equals(e.getId(), change.getEmotionId()))) {
+                    emotions.add(change.getEmotion());
+                }
+            } else {
+                emotions.removeIf(e -> Objects.equals(e.getId(), change.getEmotionId()));
+            }
+        }
+    }
+
+    private void remember(Map<String, List<EmotionChange>> target, Map<String, Object> record) {
+        EmotionChange change = fromRecord(record);
+        if (change != null) {
+            target.computeIfAbsent(change.getImageHash(), k -> new ArrayList<>()).add(change);
+        }
+    }
+
+    private Map<String, Object> toRecord(EmotionChange change) {
+        Map<String, Object> record = new HashMap<>();
+        record.put("hash", change.getImageHash());
+        if (change.getKind() == EmotionChange.Kind.ADD) {
+            record.put("op", "add");
+            record.put("emotion", convertEmotionToMap(change.getEmotion()));
+        } else {
+            record.put("op", "remove");
+            record.put("id", change.getEmotionId());
+        }
+        return record;
+    }
+
+    @SuppressWarnings("unchecked")
+    private EmotionChange fromRecord(Map<String, Object> record) {
+        String imageHash = (String) record.get("hash");
+        if ("add".equals(record.get("op"))) {
+            Emotion emotion = createEmotionFromMap((Map<String, Object>) record.get("emotion"));
+            return emotion != null ? EmotionChange.add(imageHash, emotion) : null;
+        } else if ("remove".equals(record.get("op"))) {
+            return EmotionChange.remove(imageHash, (String) record.get("id"));
+        }
+        return null;
+    }
+
+    private Emotion createEmotionFromMap(Map<String, Object> data) {
+
+        String type = (String) data.get("type");
+        Emotion emotion;
+
+        if ("smiley".equals(type)) {
+            SmileyEmotion smiley = new SmileyEmotion();
+            smiley.setSmileyType(SmileyEmotion.SmileyType.valueOf((String) data.get("smileyType")));
+            emotion = smiley;
+        } else if ("text".equals(type)) {
+            TextEmotion text = new TextEmotion();
+            text.setText((String) data.get("text"));
+            text.setColor((String) data.get("color"));
+            emotion = text;
+        } else if ("custom".equals(type)) {
+            CustomEmotion custom = new CustomEmotion();
+            custom.setEmojiCode((String) data.get("emojiCode"));
+            custom.setDescription((String) data.get("description"));
+            emotion = custom;
+        } else {
+            return null;
+        }
+
+        emotion.setId((String) data.get("id"));
+        emotion.setUserId((String) data.get("userId"));
+        emotion.setTimestamp(((Number) data.get("timestamp")).longValue());
+        emotion.setPositionX(((Number) data.get("positionX")).doubleValue());
+        emotion.setPositionY(((Number) data.get("positionY")).doubleValue());
+        return emotion;
+    }
+
+    private Map<String, Object> convertEmotionToMap(Emotion emotion) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("type", emotion.getType());
+        map.put("id", emotion.getId());
+        map.put("userId", emotion.getUserId());
+        map.put("timestamp", emotion.getTimestamp());
+        map.put("positionX", emotion.getPositionX());
+        map.put("positionY", emotion.getPositionY());
+
+        if (emotion instanceof SmileyEmotion) {
+            map.put("smileyType", ((SmileyEmotion) emotion).getSmileyType().name());
+        } else if (emotion instanceof TextEmotion) {
+            map.put("text", ((TextEmotion) emotion).getText());
+            map.put("color", ((TextEmotion) emotion).getColor());
+        } else if (emotion instanceof CustomEmotion) {
+            map.put("emojiCode", ((CustomEmotion) emotion).getEmojiCode());
+            map.put("description", ((CustomEmotion) emotion).getDescription());
+        }
+
+        return map;
+    }
+}
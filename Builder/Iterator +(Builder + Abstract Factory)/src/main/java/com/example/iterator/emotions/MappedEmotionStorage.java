@@ -0,0 +1,354 @@
+package com.example.iterator.emotions;
+
+import com.example.iterator.CustomEmotion;
+import com.example.iterator.TextEmotion;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/*бинарное хранилище эмоций на отображаемых в память файлах
+  emotions_data.bin - заголовок и записи фиксированной длины, emotions_strings.bin - куча строк
+  при открытии строится только индекс хэш -> номера записей, строки читаются при обращении к изображению
+
+  запись (64 байта):
+   0  ключ изображения, 128 бит (hex-хэш) или ссылка на строку в куче
+  16  id эмоции, 128 бит (UUID) или ссылка на строку в куче
+  32  timestamp
+  40  userId, text/emojiCode, color/description - ссылки в кучу (-1 - нет значения)
+  52  x, y - доли 0..1, квантованные в 16 бит
+  56  тип, подтип смайлика, флаги */
+public class MappedEmotionStorage implements EmotionStorage {
+    static final String DATA_FILE = "emotions_data.bin";
+    static final String STRINGS_FILE = "emotions_strings.bin";
+
+    private static final int MAGIC = 0x454D4F31; //"EMO1"
+    private static final int HEADER_SIZE = 16;   //magic, версия, число записей
+    private static final int RECORD_SIZE = 64;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final byte TYPE_SMILEY = 1;
+    private static final byte TYPE_TEXT = 2;
+    private static final byte TYPE_CUSTOM = 3;
+
+    private static final byte FLAG_DELETED = 1;
+    private static final byte FLAG_IMAGE_KEY_STRING = 2;
+    private static final byte FLAG_ID_STRING = 4;
+
+    private final FileChannel dataChannel;
+    private final FileChannel stringChannel;
+    private MappedByteBuffer data;
+    private MappedByteBuffer strings;
+    private long recordCount;
+    private long stringsSize;
+
+    //хэш изображения -> номера его записей (под монитором this)
+    private final Map<String, List<Integer>> recordsByImage = new HashMap<>();
+    private final Map<String, Integer> stringRefs = new HashMap<>(); //строки, уже записанные в этой сессии
+
+    public MappedEmotionStorage(Path directory) throws IOException {
+        dataChannel = FileChannel.open(directory.resolve(DATA_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        stringChannel = FileChannel.open(directory.resolve(STRINGS_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        if (dataChannel.size() < HEADER_SIZE) {
+            mapData(INITIAL_CAPACITY);
+            data.putInt(0, MAGIC);
+            data.putInt(4, 1);
+            data.putLong(8, 0);
+        } else {
+            mapData((dataChannel.size() - HEADER_SIZE) / RECORD_SIZE);
+            if (data.getInt(0) != MAGIC) {
+                throw new IOException("Not an emotion store: " + directory.resolve(DATA_FILE));
+            }
+        }
+        recordCount = data.getLong(8);
+        stringsSize = stringChannel.size();
+        strings = stringChannel.map(FileChannel.MapMode.READ_ONLY, 0, stringsSize);
+
+        buildIndex();
+    }
+
+    //один проход по записям без чтения строк
+    private void buildIndex() {
+        for (int i = 0; i < recordCount; i++) {
+            int base = recordOffset(i);
+            if ((data.get(base + 58) & FLAG_DELETED) != 0) continue;
+            recordsByImage.computeIfAbsent(imageKey(base), k -> new ArrayList<>()).add(i);
+        }
+    }
+
+    @Override
+    public synchronized Set<String> imageHashes() {
+        return new HashSet<>(recordsByImage.keySet());
+    }
+
+    @Override
+    public synchronized List<Emotion> read(String imageHash) {
+        List<Integer> records = recordsByImage.get(imageHash);
+        if (records == null) return new ArrayList<>();
+
+        List<Emotion> emotions = new ArrayList<>(records.size());
+        for (int record : records) {
+            Emotion emotion = decode(recordOffset(record));
+            if (emotion != null) {
+                emotions.add(emotion);
+            }
+        }
+        return emotions;
+    }
+
+    //число эмоций изображения прямо из индекса
+    public synchronized int count(String imageHash) {
+        List<Integer> records = recordsByImage.get(imageHash);
+        return records != null ? records.size() : 0;
+    }
+
+    /*строки дописываются первыми, счетчик записей в заголовке - последним:
+      после сбоя видны только полностью записанные записи */
+    @Override
+    public synchronized void write(List<EmotionChange> changes) throws IOException {
+        for (EmotionChange change : changes) {
+            if (change.getKind() == EmotionChange.Kind.ADD) {
+                append(change.getImageHash(), change.getEmotion());
+            } else {
+                delete(change.getImageHash(), change.getEmotionId());
+            }
+        }
+        stringChannel.force(false);
+        data.putLong(8, recordCount);
+        data.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        data.force();
+        dataChannel.close();
+        stringChannel.close();
+    }
+
+    private void append(String imageHash, Emotion emotion) throws IOException {
+        for (int record : recordsByImage.getOrDefault(imageHash, List.of())) {
+            if (emotionId(recordOffset(record)).equals(emotion.getId())) return; //уже записана
+        }
+
+        if (recordCount == capacity()) {
+            mapData(capacity() * 2);
+        }
+        int index = (int) recordCount;
+        int base = recordOffset(index);
+        byte flags = 0;
+
+        long[] key = parseHex(imageHash);
+        if (key != null) {
+            data.putLong(base, key[0]);
+            data.putLong(base + 8, key[1]);
+        } else {
+            data.putLong(base, stringRef(imageHash));
+            data.putLong(base + 8, 0);
+            flags |= FLAG_IMAGE_KEY_STRING;
+        }
+
+        UUID uuid = parseUuid(emotion.getId());
+        if (uuid != null) {
+            data.putLong(base + 16, uuid.getMostSignificantBits());
+            data.putLong(base + 24, uuid.getLeastSignificantBits());
+        } else {
+            data.putLong(base + 16, stringRef(emotion.getId()));
+            data.putLong(base + 24, 0);
+            flags |= FLAG_ID_STRING;
+        }
+
+        data.putLong(base + 32, emotion.getTimestamp());
+        data.putInt(base + 40, stringRef(emotion.getUserId()));
+
+        byte type;
+        byte subtype = 0;
+        int firstRef = -1;
+        int secondRef = -1;
+        if (emotion instanceof SmileyEmotion) {
+            type = TYPE_SMILEY;
+            subtype = (byte) ((SmileyEmotion) emotion).getSmileyType().ordinal();
+        } else if (emotion instanceof TextEmotion) {
+            type = TYPE_TEXT;
+            firstRef = stringRef(((TextEmotion) emotion).getText());
+            secondRef = stringRef(((TextEmotion) emotion).getColor());
+        } else if (emotion instanceof CustomEmotion) {
+            type = TYPE_CUSTOM;
+            firstRef = stringRef(((CustomEmotion) emotion).getEmojiCode());
+            secondRef = stringRef(((CustomEmotion) emotion).getDescription());
+        } else {
+            return;
+        }
+        data.putInt(base + 44, firstRef);
+        data.putInt(base + 48, secondRef);
+        data.putShort(base + 52, quantize(emotion.getPositionX()));
+        data.putShort(base + 54, quantize(emotion.getPositionY()));
+        data.put(base + 56, type);
+        data.put(base + 57, subtype);
+        data.put(base + 58, flags);
+
+        recordsByImage.computeIfAbsent(imageHash, k -> new ArrayList<>()).add(index);
+        recordCount++;
+    }
+
+    private void delete(String imageHash, String emotionId) {
+        List<Integer> records = recordsByImage.get(imageHash);
+        if (records == null) return;
+
+        Iterator<Integer> it = records.iterator();
+        while (it.hasNext()) {
+            int base = recordOffset(it.next());
+            if (emotionId(base).equals(emotionId)) {
+                data.put(base + 58, (byte) (data.get(base + 58) | FLAG_DELETED));
+                it.remove();
+            }
+        }
+        if (records.isEmpty()) {
+            recordsByImage.remove(imageHash);
+        }
+    }
+
+    private Emotion decode(int base) {
+        Emotion emotion;
+        switch (data.get(base + 56)) {
+            case TYPE_SMILEY:
+                SmileyEmotion smiley = new SmileyEmotion();
+                smiley.setSmileyType(SmileyEmotion.SmileyType.values()[data.get(base + 57)]);
+                emotion = smiley;
+                break;
+            case TYPE_TEXT:
+                TextEmotion text = new TextEmotion();
+                text.setText(string(data.getInt(base + 44)));
+                text.setColor(string(data.getInt(base + 48)));
+                emotion = text;
+                break;
+            case TYPE_CUSTOM:
+                CustomEmotion custom = new CustomEmotion();
+                custom.setEmojiCode(string(data.getInt(base + 44)));
+                custom.setDescription(string(data.getInt(base + 48)));
+                emotion = custom;
+                break;
+            default:
+                return null;
+        }
+
+        emotion.setId(emotionId(base));
+        emotion.setUserId(string(data.getInt(base + 40)));
+        emotion.setTimestamp(data.getLong(base + 32));
+        emotion.setPositionX(dequantize(data.getShort(base + 52)));
+        emotion.setPositionY(dequantize(data.getShort(base + 54)));
+        return emotion;
+    }
+
+    private String imageKey(int base) {
+        if ((data.get(base + 58) & FLAG_IMAGE_KEY_STRING) != 0) {
+            return string((int) data.getLong(base));
+        }
+        return toHex(data.getLong(base)) + toHex(data.getLong(base + 8));
+    }
+
+    private String emotionId(int base) {
+        if ((data.get(base + 58) & FLAG_ID_STRING) != 0) {
+            return string((int) data.getLong(base + 16));
+        }
+        return new UUID(data.getLong(base + 16), data.getLong(base + 24)).toString();
+    }
+
+    private int stringRef(String value) throws IOException {
+        if (value == null) return -1;
+
+        Integer ref = stringRefs.get(value);
+        if (ref != null) return ref;
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(4 + bytes.length);
+        entry.putInt(bytes.length).put(bytes).flip();
+
+        int offset = (int) stringsSize;
+        while (entry.hasRemaining()) {
+            stringChannel.write(entry, stringsSize + entry.position());
+        }
+        stringsSize += 4 + bytes.length;
+        stringRefs.put(value, offset);
+        return offset;
+    }
+
+    private String string(int ref) {
+        if (ref < 0) return null;
+
+        ensureStringsMapped(ref + 4);
+        int length = strings.getInt(ref);
+        ensureStringsMapped(ref + 4 + length);
+
+        byte[] bytes = new byte[length];
+        strings.get(ref + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    //куча растет через FileChannel.write, отображение обновляется, когда ссылка выходит за его пределы
+    private void ensureStringsMapped(long end) {
+        if (end <= strings.capacity()) return;
+        try {
+            strings = stringChannel.map(FileChannel.MapMode.READ_ONLY, 0, stringsSize);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot map string heap", e);
+        }
+    }
+
+    private void mapData(long capacityRecords) throws IOException {
+        long size = HEADER_SIZE + Math.max(capacityRecords, INITIAL_CAPACITY) * RECORD_SIZE;
+        if (data != null) {
+            data.force();
+        }
+        data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private long capacity() {
+        return (data.capacity() - HEADER_SIZE) / RECORD_SIZE;
+    }
+
+    private static int recordOffset(int record) {
+        return HEADER_SIZE + record * RECORD_SIZE;
+    }
+
+    private static short quantize(double position) {
+        double clamped = Math.max(0, Math.min(1, position));
+        return (short) Math.round(clamped * 0xFFFF);
+    }
+
+    private static double dequantize(short value) {
+        return (value & 0xFFFF) / (double) 0xFFFF;
+    }
+
+    private static long[] parseHex(String hash) {
+        if (hash.length() != 32) return null;
+        for (int i = 0; i < 32; i++) {
+            if (Character.digit(hash.charAt(i), 16) < 0 || Character.isUpperCase(hash.charAt(i))) return null;
+        }
+        return new long[]{
+                Long.parseUnsignedLong(hash.substring(0, 16), 16),
+                Long.parseUnsignedLong(hash.substring(16), 16)
+        };
+    }
+
+    private static UUID parseUuid(String id) {
+        try {
+            UUID uuid = UUID.fromString(id);
+            return uuid.toString().equals(id) ? uuid : null;
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return null;
+        }
+    }
+
+    private static String toHex(long value) {
+        String hex = Long.toHexString(value);
+        return "0".repeat(16 - hex.length()) + hex;
+    }
+}
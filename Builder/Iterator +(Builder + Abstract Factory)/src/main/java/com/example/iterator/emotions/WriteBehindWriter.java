@@ -0,0 +1,249 @@
+package com.example.iterator.emotions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*отложенная запись: изменения ставятся в ограниченную очередь,
+  отдельный поток собирает их в пачки и сбрасывает одним вызовом sink
+  при заполненной очереди вызывающий поток ждет (обратное давление), а поток записи
+  сбрасывает пачку при любой политике - иначе при явном сбросе ожидание было бы бесконечным
+  пачка, которую sink не записал, не теряется: она остается в голове (порядок сохраняется) и повторяется
+  с удваивающейся паузой; flush() в это время сообщает об ошибке, close() - о потерянных изменениях */
+class WriteBehindWriter<T> implements AutoCloseable {
+
+    private static final long RETRY_MIN_MILLIS = 500;
+    private static final long RETRY_MAX_MILLIS = 60_000;
+
+    //получатель пачек; повтор той же пачки не должен менять результат
+    interface Sink<T> {
+        void write(List<T> batch) throws IOException;
+    }
+
+    private final BlockingQueue<T> queue;
+    private final Sink<T> sink;
+    private final FlushPolicy policy;
+    private final Thread thread;
+    private final Object monitor = new Object();
+
+    //состояние под monitor
+    private final List<CompletableFuture<Void>> flushRequests = new ArrayList<>();
+    private long firstPendingNanos = 0;
+    private boolean closed = false;
+
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushedItems = new AtomicLong();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private volatile long lastFlushNanos = 0;
+
+    //только в потоке записи
+    private final List<T> unwritten = new ArrayList<>();
+    private Exception lastError;
+    private long retryDelayMillis = RETRY_MIN_MILLIS;
+    private volatile long retryAtNanos = 0;
+    private volatile int unwrittenCount = 0;
+
+    WriteBehindWriter(String name, FlushPolicy policy, Sink<T> sink) {
+        this.policy = policy;
+        this.sink = sink;
+        this.queue = new ArrayBlockingQueue<>(policy.getQueueCapacity());
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    void submit(T item) {
+        synchronized (monitor) {
+            if (closed) {
+                throw new IllegalStateException("Writer is closed");
+            }
+        }
+        try {
+            if (!queue.offer(item)) {
+                synchronized (monitor) {
+                    monitor.notifyAll(); //очередь полна - будим поток записи
+                }
+                queue.put(item);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for queue space", e);
+        }
+        synchronized (monitor) {
+            if (firstPendingNanos == 0) {
+                firstPendingNanos = System.nanoTime();
+            }
+            monitor.notifyAll();
+        }
+    }
+
+    /*ждет, пока все поставленные ранее изменения будут записаны; если запись не удалась,
+      изменения остаются для повтора, а ошибка пробрасывается */
+    void flush() throws IOException {
+        CompletableFuture<Void> request = new CompletableFuture<>();
+        synchronized (monitor) {
+            if (closed) return; //close() сам дописывает очередь
+            flushRequests.add(request);
+            monitor.notifyAll();
+        }
+        try {
+            request.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    /*записывает все, что осталось в очереди, и останавливает поток */
+    @Override
+    public void close() {
+        List<T> lost = shutdown();
+        if (!lost.isEmpty()) {
+            System.err.println("Writer " + thread.getName() + " closed, " + lost.size()
+                    + " changes lost: " + lastError.getMessage());
+        }
+    }
+
+    /*как close(), но незаписанные изменения (запись так и не удалась) возвращаются вызывающему */
+    List<T> shutdown() {
+        synchronized (monitor) {
+            if (closed) return List.of();
+            closed = true;
+            monitor.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return List.of();
+        }
+        return new ArrayList<>(unwritten);
+    }
+
+    int getQueueDepth() {
+        return queue.size() + unwrittenCount;
+    }
+
+    long getFlushCount() {
+        return flushCount.get();
+    }
+
+    long getFlushedItems() {
+        return flushedItems.get();
+    }
+
+    double getLastFlushMillis() {
+        return lastFlushNanos / 1_000_000.0;
+    }
+
+    double getAverageFlushMillis() {
+        long count = flushCount.get();
+        return count == 0 ? 0 : totalFlushNanos.get() / 1_000_000.0 / count;
+    }
+
+    private void run() {
+        List<T> batch = new ArrayList<>();
+
+        while (true) {
+            List<CompletableFuture<Void>> completed;
+            boolean drainAll;
+            boolean stop;
+
+            synchronized (monitor) {
+                try {
+                    waitForTrigger();
+                } catch (InterruptedException e) {
+                    closed = true;
+                }
+                completed = new ArrayList<>(flushRequests);
+                flushRequests.clear();
+                stop = closed;
+                drainAll = stop || !completed.isEmpty();
+            }
+
+            //при flush()/close() забираем всю очередь и повторяем несмотря на паузу, иначе одну пачку
+            if (drainAll) {
+                writeBatch(batch, true);
+                while (queue.drainTo(batch, policy.getMaxBatchSize()) > 0) {
+                    writeBatch(batch, true);
+                }
+            } else {
+                queue.drainTo(batch, policy.getMaxBatchSize());
+                writeBatch(batch, false);
+            }
+
+            synchronized (monitor) {
+                firstPendingNanos = queue.isEmpty() ? 0 : System.nanoTime();
+            }
+            for (CompletableFuture<Void> request : completed) {
+                if (unwritten.isEmpty()) {
+                    request.complete(null);
+                } else {
+                    request.completeExceptionally(lastError);
+                }
+            }
+            if (stop) return;
+        }
+    }
+
+    private void waitForTrigger() throws InterruptedException {
+        while (!closed && flushRequests.isEmpty()) {
+            int pending = queue.size();
+            if (pending >= policy.getMaxBatchSize() || queue.remainingCapacity() == 0) return;
+
+            long timeout = 0; //0 - ждать без ограничения
+            if (pending > 0 && policy.getMaxDelayMillis() >= 0) {
+                long waitedMillis = (System.nanoTime() - firstPendingNanos) / 1_000_000;
+                long remaining = policy.getMaxDelayMillis() - waitedMillis;
+                if (remaining <= 0) return;
+                timeout = remaining;
+            }
+            if (unwrittenCount > 0) {
+                long retryIn = (retryAtNanos - System.nanoTime()) / 1_000_000;
+                if (retryIn <= 0) return;
+                timeout = timeout == 0 ? retryIn : Math.min(timeout, retryIn);
+            }
+            monitor.wait(timeout);
+        }
+    }
+
+    /*незаписанное ранее уходит вместе с новой пачкой, впереди нее; до конца паузы (кроме force)
+      новая пачка только добавляется к незаписанному */
+    private void writeBatch(List<T> batch, boolean force) {
+        unwritten.addAll(batch);
+        batch.clear();
+        unwrittenCount = unwritten.size();
+        if (unwritten.isEmpty() || lastError != null && !force && System.nanoTime() < retryAtNanos) return;
+
+        long start = System.nanoTime();
+        try {
+            sink.write(new ArrayList<>(unwritten));
+        } catch (IOException | RuntimeException e) {
+            if (lastError == null || force) {
+                System.err.println("Error writing batch, " + unwritten.size() + " changes kept for retry in "
+                        + retryDelayMillis + " ms: " + e.getMessage());
+            }
+            lastError = e;
+            retryAtNanos = System.nanoTime() + retryDelayMillis * 1_000_000;
+            retryDelayMillis = Math.min(retryDelayMillis * 2, RETRY_MAX_MILLIS);
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        lastFlushNanos = elapsed;
+        totalFlushNanos.addAndGet(elapsed);
+        flushCount.incrementAndGet();
+        flushedItems.addAndGet(unwritten.size());
+        unwritten.clear();
+        unwrittenCount = 0;
+        lastError = null;
+        retryDelayMillis = RETRY_MIN_MILLIS;
+    }
+}
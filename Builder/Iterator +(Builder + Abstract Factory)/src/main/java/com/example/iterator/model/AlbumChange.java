@@ -0,0 +1,66 @@
+package com.example.iterator.model;
+
+import java.io.File;
+import java.util.List;
+
+/*результат пакета изменений альбома: какие файлы добавлены, изменены и удалены;
+  rehashed - переписанные файлы с эмоциями, у которых сменился хэш: хранилище эмоций держит их
+  под прежним хэшем, и слушатель должен перенести их (EmotionManager.moveEmotions) */
+public final class AlbumChange {
+
+    private final List<File> added;
+    private final List<File> updated;
+    private final List<File> removed;
+    private final List<Rehash> rehashed;
+
+    AlbumChange(List<File> added, List<File> updated, List<File> removed, List<Rehash> rehashed) {
+        this.added = List.copyOf(added);
+        this.updated = List.copyOf(updated);
+        this.removed = List.copyOf(removed);
+        this.rehashed = List.copyOf(rehashed);
+    }
+
+    public List<File> getAdded() {
+        return added;
+    }
+
+    public List<File> getUpdated() {
+        return updated;
+    }
+
+    public List<File> getRemoved() {
+        return removed;
+    }
+
+    public List<Rehash> getRehashed() {
+        return rehashed;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && updated.isEmpty() && removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "+" + added.size() + " ~" + updated.size() + " -" + removed.size();
+    }
+
+    public static final class Rehash {
+        private final String oldHash;
+        private final ImageWithEmotions image;
+
+        Rehash(String oldHash, ImageWithEmotions image) {
+            this.oldHash = oldHash;
+            this.image = image;
+        }
+
+        public String getOldHash() {
+            return oldHash;
+        }
+
+        //изображение с новым хэшем и перенесенными эмоциями
+        public ImageWithEmotions getImage() {
+            return image;
+        }
+    }
+}
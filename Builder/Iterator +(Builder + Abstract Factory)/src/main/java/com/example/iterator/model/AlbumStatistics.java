@@ -0,0 +1,147 @@
+package com.example.iterator.model;
+
+import com.example.iterator.emotions.Emotion;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/*счетчики альбома, которые меняются вместе с изображениями, а не пересчитываются при каждом запросе
+  изменения - O(1) на эмоцию (O(глубины каталога) для счетчиков каталогов), их делает агрегат под своим монитором
+  чтение - оптимистичное через StampedLock: без блокировки, если во время копирования не было записи */
+final class AlbumStatistics {
+
+    private static final String UNKNOWN_USER = "unknown";
+
+    private final File root;
+    private final StampedLock lock = new StampedLock();
+
+    //под lock; карты конкурентные, чтобы оптимистичное чтение не падало на середине записи
+    private long totalImages = 0;
+    private long totalEmotions = 0;
+    private final Map<String, Long> emotionsByType = new ConcurrentHashMap<>();
+    private final Map<String, Long> emotionsByUser = new ConcurrentHashMap<>();
+    private final Map<String, Long> imagesByDirectory = new ConcurrentHashMap<>(); //с учетом подкаталогов
+    private final Map<String, Long> emotionsByDirectory = new ConcurrentHashMap<>();
+
+    AlbumStatistics(File root) {
+        this.root = root.getAbsoluteFile();
+    }
+
+    void imageAdded(ImageWithEmotions image) {
+        long stamp = lock.writeLock();
+        try {
+            List<String> directories = directories(image);
+            totalImages++;
+            for (String directory : directories) {
+                add(imagesByDirectory, directory, 1);
+            }
+            for (Emotion emotion : image.getEmotions()) {
+                count(directories, emotion, 1);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    void imageRemoved(ImageWithEmotions image) {
+        long stamp = lock.writeLock();
+        try {
+            List<String> directories = directories(image);
+            totalImages--;
+            for (String directory : directories) {
+                add(imagesByDirectory, directory, -1);
+            }
+            for (Emotion emotion : image.getEmotions()) {
+                count(directories, emotion, -1);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    void emotionAdded(ImageWithEmotions image, Emotion emotion) {
+        emotionsChanged(image, List.of(emotion), 1);
+    }
+
+    void emotionsRemoved(ImageWithEmotions image, Collection<Emotion> emotions) {
+        emotionsChanged(image, emotions, -1);
+    }
+
+    /*согласованный снимок в формате getStatistics() */
+    Map<String, Object> snapshot() {
+        long stamp = lock.tryOptimisticRead();
+        Map<String, Object> stats = copy();
+        if (lock.validate(stamp)) return stats;
+
+        //во время копирования шла запись - повторяем под блокировкой чтения
+        stamp = lock.readLock();
+        try {
+            return copy();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void emotionsChanged(ImageWithEmotions image, Collection<Emotion> emotions, int delta) {
+        if (emotions.isEmpty()) return;
+
+        long stamp = lock.writeLock();
+        try {
+            List<String> directories = directories(image);
+            for (Emotion emotion : emotions) {
+                count(directories, emotion, delta);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void count(List<String> directories, Emotion emotion, int delta) {
+        totalEmotions += delta;
+        add(emotionsByType, emotion.getType(), delta);
+        add(emotionsByUser, emotion.getUserId() != null ? emotion.getUserId() : UNKNOWN_USER, delta);
+        for (String directory : directories) {
+            add(emotionsByDirectory, directory, delta);
+        }
+    }
+
+    private static void add(Map<String, Long> counters, String key, long delta) {
+        counters.compute(key, (k, value) -> {
+            long updated = (value != null ? value : 0) + delta;
+            return updated != 0 ? updated : null;
+        });
+    }
+
+    private Map<String, Object> copy() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("totalImages", (int) totalImages);
+        stats.put("totalEmotions", (int) totalEmotions);
+        stats.put("emotionTypes", toIntegers(emotionsByType));
+        stats.put("emotionsByUser", toIntegers(emotionsByUser));
+        stats.put("imagesByDirectory", toIntegers(imagesByDirectory));
+        stats.put("emotionsByDirectory", toIntegers(emotionsByDirectory));
+        return stats;
+    }
+
+    //в getStatistics() счетчики всегда были Integer
+    private static Map<String, Integer> toIntegers(Map<String, Long> counters) {
+        Map<String, Integer> result = new HashMap<>();
+        counters.forEach((key, value) -> result.put(key, value.intValue()));
+        return result;
+    }
+
+    /*каталог файла и все его родители до корня альбома; для файла вне альбома - только его каталог */
+    private List<String> directories(ImageWithEmotions image) {
+        File parent = image.getImageFile().getAbsoluteFile().getParentFile();
+        if (parent == null) return List.of();
+
+        List<String> directories = new ArrayList<>();
+        for (File directory = parent; directory != null; directory = directory.getParentFile()) {
+            directories.add(directory.getPath());
+            if (directory.equals(root)) return directories;
+        }
+        return List.of(parent.getPath());
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.iterator.model;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/*слежение за каталогом альбома через WatchService вместо повторного выбора папки
+  события собираются в набор измененных путей, пока не наступит пауза DEBOUNCE_MS (но не дольше MAX_DELAY_MS):
+  серия записей одного файла, переименование (удаление + создание) дают одно изменение на путь
+  по каждому пути смотрится его текущее состояние - есть и подходит фильтру: добавить/обновить, нет: удалить
+  каталогом удаленный путь считается, только если он был среди наблюдаемых - иначе альбому пришлось бы
+  проверять каждое свое изображение на вхождение в каждый удаленный путь
+  хэши новых файлов считаются в потоке наблюдателя, а сам пакет применяется через applier
+  (для JavaFX - Platform::runLater), чтобы альбом и его итераторы менялись в том же потоке, что их читает
+  переполнение очереди событий (OVERFLOW) - пересканирование альбома с неизменившимися хэшами из индекса
+  события сразу сбрасывают запомненные хэши в FingerprintService, который сам за этим деревом не следит */
+public final class AlbumWatcher implements Closeable {
+
+    private static final long DEBOUNCE_MS = 400;
+    private static final long MAX_DELAY_MS = 3000;
+
+    private final EnhancedImageAggregate album;
+    private final Executor applier;
+    private final Consumer<AlbumChange> listener;
+    private final FingerprintService fingerprints;
+    private final Path root;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    //наблюдаемые каталоги; путь остается здесь до события его удаления, даже если ключ уже недействителен
+    private final Set<Path> knownDirectories = new HashSet<>();
+    private final Thread thread;
+
+    //накапливаются между пакетами, только в потоке наблюдателя
+    private final Set<Path> dirty = new LinkedHashSet<>();
+    private final Set<Path> removedDirectories = new LinkedHashSet<>();
+    private boolean overflow = false;
+
+    private AlbumWatcher(EnhancedImageAggregate album, Executor applier, Consumer<AlbumChange> listener)
+            throws IOException {
+        this.album = album;
+        this.applier = applier;
+        this.listener = listener;
+        this.root = album.getRoot().toPath();
+        this.fingerprints = FingerprintService.getInstance(album.getFingerprintMode());
+        this.watchService = root.getFileSystem().newWatchService();
+        registerTree(root, false);
+        fingerprints.watchedExternally(root);
+        this.thread = new Thread(this::run, "album-watcher");
+        thread.setDaemon(true);
+    }
+
+    /*listener вызывается через applier после применения непустого пакета */
+    public static AlbumWatcher start(EnhancedImageAggregate album, Executor applier, Consumer<AlbumChange> listener)
+            throws IOException {
+        AlbumWatcher watcher = new AlbumWatcher(album, applier, listener);
+        watcher.thread.start();
+        return watcher;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close(); //take() в потоке наблюдателя завершится ClosedWatchServiceException
+        fingerprints.externalWatchEnded(root);
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                collect(watchService.take());
+                //ждем паузы в событиях
+                long deadline = System.currentTimeMillis() + MAX_DELAY_MS;
+                while (true) {
+                    long wait = Math.min(DEBOUNCE_MS, deadline - System.currentTimeMillis());
+                    if (wait <= 0) break;
+                    WatchKey key = watchService.poll(wait, TimeUnit.MILLISECONDS);
+                    if (key == null) break;
+                    collect(key);
+                }
+                flushBatch();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            //наблюдатель закрыт
+        }
+    }
+
+    private void collect(WatchKey key) {
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflow = true;
+                fingerprints.invalidateUnder(root);
+                continue;
+            }
+            if (directory == null) continue;
+            Path child = directory.resolve((Path) event.context());
+            if (event.kind() == ENTRY_DELETE && knownDirectories.contains(child)) {
+                //удален каталог
+                fingerprints.invalidateUnder(child);
+                knownDirectories.removeIf(path -> path.startsWith(child));
+                removedDirectories.add(child);
+                continue;
+            }
+            fingerprints.invalidate(child.toFile());
+            //скрытые файлы (в том числе хранилище миниатюр в корне альбома) сканер тоже пропускает
+            if (child.getFileName().toString().startsWith(".")) continue;
+
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                //файлы могли появиться в новом каталоге до его регистрации
+                registerTree(child, true);
+            } else {
+                dirty.add(child);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key); //каталог удален
+        }
+    }
+
+    private void registerTree(Path root, boolean collectFiles) {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (!dir.equals(root) && dir.getFileName().toString().startsWith(".")) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    directories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                    knownDirectories.add(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (collectFiles) {
+                        dirty.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Cannot watch " + root + ": " + e.getMessage());
+        }
+    }
+
+    private void flushBatch() {
+        List<ImageWithEmotions> upserts = new ArrayList<>();
+        List<Path> removed = new ArrayList<>();
+        List<Path> removedTrees = new ArrayList<>();
+        if (overflow) {
+            //события потеряны - сверяем альбом с диском целиком
+            knownDirectories.clear();
+            registerTree(root, false);
+            rescan(upserts, removed);
+        } else {
+            for (Path path : dirty) {
+                inspect(path, upserts, removed);
+            }
+            removedTrees.addAll(removedDirectories);
+        }
+        dirty.clear();
+        removedDirectories.clear();
+        overflow = false;
+        if (upserts.isEmpty() && removed.isEmpty() && removedTrees.isEmpty()) return;
+
+        applier.execute(() -> {
+            AlbumChange change = album.applyChanges(upserts, removed, removedTrees);
+            if (!change.isEmpty()) {
+                listener.accept(change);
+            }
+        });
+    }
+
+    private void inspect(Path path, List<ImageWithEmotions> upserts, List<Path> removed) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            //файл удален (переименован); путь, который фильтр не пропустил бы, в альбоме быть не мог
+            if (album.accepts(path)) {
+                removed.add(path);
+            }
+            return;
+        }
+        if (attrs.isDirectory() || !album.accepts(path)) return;
+
+        ImageWithEmotions known = album.findByFile(path.toFile());
+        if (known != null && known.getScannedFileSize() == attrs.size()
+                && known.getScannedLastModified() == attrs.lastModifiedTime().toMillis()) {
+            return;
+        }
+        try {
+            upserts.add(album.createImage(path, attrs));
+        } catch (Exception e) {
+            System.err.println("Error loading image: " + path.toAbsolutePath());
+        }
+    }
+
+    private void rescan(List<ImageWithEmotions> upserts, List<Path> removed) {
+        List<ImageWithEmotions> scanned = album.scan(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        Set<File> present = new HashSet<>();
+        for (ImageWithEmotions image : scanned) {
+            present.add(image.getImageFile());
+            ImageWithEmotions known = album.findByFile(image.getImageFile());
+            if (known == null || known.getScannedFileSize() != image.getScannedFileSize()
+                    || known.getScannedLastModified() != image.getScannedLastModified()) {
+                upserts.add(image);
+            }
+        }
+        for (File file : album.getFiles()) {
+            if (!present.contains(file)) {
+                removed.add(file.toPath());
+            }
+        }
+        FingerprintCache.getInstance(album.getFingerprintMode()).flush();
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.iterator.model;
+
+import javafx.scene.image.Image;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+
+/*кэш декодированных изображений: (хэш файла, запрошенный размер) -> Image
+  вес записи - байты пикселей после декодирования (ширина * высота * 4), а не число записей;
+  при превышении бюджета вытесняются давно не использованные (LRU)
+  бюджет задается свойством images.cache.mb (по умолчанию 256 МБ) или setMaxBytes */
+public final class DecodedImageCache {
+
+    private static final String BUDGET_PROPERTY = "images.cache.mb";
+    private static final long DEFAULT_BUDGET_MB = 256;
+
+    private static class Holder {
+        private static final DecodedImageCache INSTANCE =
+                new DecodedImageCache(Long.getLong(BUDGET_PROPERTY, DEFAULT_BUDGET_MB) * 1024 * 1024);
+    }
+
+    //порядок доступа: первым идет давно не использованный
+    private final LinkedHashMap<Key, Image> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long maxBytes;
+    private long bytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    DecodedImageCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public static DecodedImageCache getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /*width/height - размер, с которым декодировали (0 - исходный) */
+    public synchronized Image get(String fingerprint, int width, int height) {
+        Image image = entries.get(new Key(fingerprint, width, height));
+        if (image != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return image;
+    }
+
+    public synchronized void put(String fingerprint, int width, int height, Image image) {
+        long weight = weight(image);
+        //больше всего бюджета - не кэшируем, иначе вытеснит все остальное
+        if (image == null || fingerprint == null || weight > maxBytes) return;
+
+        Image previous = entries.put(new Key(fingerprint, width, height), image);
+        if (previous != null) {
+            bytes -= weight(previous);
+        }
+        bytes += weight;
+        evict();
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    static long weight(Image image) {
+        return image != null ? (long) image.getWidth() * (long) image.getHeight() * 4 : 0;
+    }
+
+    private void evict() {
+        Iterator<Image> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= weight(eldest.next());
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private static final class Key {
+        final String fingerprint;
+        final int width;
+        final int height;
+
+        Key(String fingerprint, int width, int height) {
+            this.fingerprint = fingerprint;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return width == key.width && height == key.height && fingerprint.equals(key.fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fingerprint, width, height);
+        }
+    }
+}
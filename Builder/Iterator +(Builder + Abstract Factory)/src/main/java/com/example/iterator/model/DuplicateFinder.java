@@ -0,0 +1,164 @@
+package com.example.iterator.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/*поиск почти одинаковых изображений (серии снимков, повторные экспорты) по снимку альбома
+  dHash считается параллельно и запоминается в PerceptualHashCache по отпечатку файла,
+  хэши индексируются MultiIndexHash, поэтому поиск в радиусе k не перебирает весь альбом
+  результаты - позиции в альбоме на момент построения, его поколение - getAlbumGeneration() */
+public final class DuplicateFinder {
+
+    //из 64 бит: повторный экспорт обычно дает 0-2, соседние кадры серии - до 5-6
+    public static final int DEFAULT_MAX_DISTANCE = 6;
+
+    private final long[] hashes;
+    private final boolean[] hashed;
+    private final MultiIndexHash index;
+    private long albumGeneration = 0;
+
+    private DuplicateFinder(long[] hashes, boolean[] hashed) {
+        this.hashes = hashes;
+        this.hashed = hashed;
+        int count = 0;
+        for (boolean ok : hashed) {
+            if (ok) count++;
+        }
+        long[] indexed = new long[count];
+        int[] positions = new int[count];
+        for (int i = 0, j = 0; i < hashes.length; i++) {
+            if (hashed[i]) {
+                indexed[j] = hashes[i];
+                positions[j++] = i;
+            }
+        }
+        this.index = new MultiIndexHash(indexed, positions);
+    }
+
+    /*images - изображения альбома в его порядке; файлы, которые не удалось прочитать, в поиске не участвуют */
+    static DuplicateFinder build(List<ImageWithEmotions> images, int parallelism) {
+        return build(images, parallelism, PerceptualHashCache.getInstance());
+    }
+
+    static DuplicateFinder build(List<ImageWithEmotions> images, int parallelism, PerceptualHashCache cache) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        long[] hashes = new long[images.size()];
+        boolean[] hashed = new boolean[images.size()];
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> IntStream.range(0, images.size()).parallel().forEach(i -> {
+                ImageWithEmotions image = images.get(i);
+                Long known = cache.lookup(image.getImageHash());
+                if (known == null) {
+                    try {
+                        known = PerceptualHash.of(image.getImageFile());
+                    } catch (IOException e) {
+                        return;
+                    }
+                    cache.store(image.getImageHash(), known);
+                }
+                hashes[i] = known;
+                hashed[i] = true;
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Error computing perceptual hashes: " + e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        cache.flush();
+        return new DuplicateFinder(hashes, hashed);
+    }
+
+    DuplicateFinder forGeneration(long generation) {
+        this.albumGeneration = generation;
+        return this;
+    }
+
+    /*если у альбома уже другое поколение, позиции устарели */
+    public long getAlbumGeneration() {
+        return albumGeneration;
+    }
+
+    public int size() {
+        return hashes.length;
+    }
+
+    public int getHashedCount() {
+        return index.size();
+    }
+
+    /*позиции изображений в радиусе maxDistance от изображения position (без него самого), по порядку альбома */
+    public int[] findSimilar(int position, int maxDistance) {
+        if (position < 0 || position >= hashes.length || !hashed[position]) return new int[0];
+
+        List<Integer> found = new ArrayList<>();
+        index.search(hashes[position], maxDistance, other -> {
+            if (other != position) found.add(other);
+        });
+        int[] result = found.stream().mapToInt(Integer::intValue).toArray();
+        Arrays.sort(result);
+        return result;
+    }
+
+    /*группы похожих (от двух изображений): связные компоненты графа "расстояние <= maxDistance",
+      объединение через систему непересекающихся множеств; группы и позиции внутри - по порядку альбома */
+    public List<int[]> clusters(int maxDistance) {
+        int[] parent = new int[hashes.length];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        for (int i = 0; i < hashes.length; i++) {
+            if (!hashed[i]) continue;
+            int current = i;
+            index.search(hashes[i], maxDistance, other -> {
+                if (other > current) union(parent, current, other);
+            });
+        }
+
+        int[] sizes = new int[parent.length];
+        for (int i = 0; i < parent.length; i++) {
+            sizes[find(parent, i)]++;
+        }
+        //номер группы у корня - по первому (наименьшему) члену группы
+        int[] clusterOf = new int[parent.length];
+        int[] filled = new int[parent.length];
+        Arrays.fill(clusterOf, -1);
+        List<int[]> clusters = new ArrayList<>();
+        for (int i = 0; i < parent.length; i++) {
+            int root = find(parent, i);
+            if (sizes[root] < 2) continue;
+            if (clusterOf[root] < 0) {
+                clusterOf[root] = clusters.size();
+                clusters.add(new int[sizes[root]]);
+            }
+            clusters.get(clusterOf[root])[filled[root]++] = i;
+        }
+        return clusters;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]]; //сокращение пути
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA != rootB) {
+            //меньший корень остается корнем
+            parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.iterator.model;
+
+import com.example.iterator.emotions.Emotion;
+import com.example.iterator.emotions.SmileyEmotion;
+
+import java.util.*;
+
+/*инвертированный индекс: тип эмоции ("smiley", "text", "custom") или подтип смайлика ("smiley:love")
+  -> множество позиций изображений в альбоме в виде BitSet
+  для каждого ключа хранится и число эмоций на позиции: добавление или удаление одной эмоции
+  меняет счетчик, а бит ставится или снимается только при переходе 0 <-> 1
+  не потокобезопасен - им владеет агрегат */
+final class EmotionTypeIndex {
+
+    private static final String SUBTYPE_SEPARATOR = ":";
+
+    private final Map<String, BitSet> positionsByKey = new HashMap<>();
+    private final Map<String, int[]> countsByKey = new HashMap<>();
+    //ключи уже приведенных типов - тип не переводится в нижний регистр на каждую эмоцию
+    private final Map<String, String> keysByType = new HashMap<>();
+    private final Map<SmileyEmotion.SmileyType, String> subtypeKeys = new EnumMap<>(SmileyEmotion.SmileyType.class);
+
+    void add(int position, ImageWithEmotions image) {
+        for (Emotion emotion : image.getEmotions()) {
+            added(position, emotion);
+        }
+    }
+
+    void added(int position, Emotion emotion) {
+        change(position, emotion, 1);
+    }
+
+    void removed(int position, Emotion emotion) {
+        change(position, emotion, -1);
+    }
+
+    /*на позиции position старое изображение заменено новым (эмоции могли смениться целиком);
+      для одной эмоции дешевле added/removed */
+    void update(int position, ImageWithEmotions oldImage, ImageWithEmotions newImage) {
+        List<Emotion> oldEmotions = oldImage.getEmotions();
+        List<Emotion> newEmotions = newImage.getEmotions();
+        if (oldEmotions == newEmotions || oldEmotions.equals(newEmotions)) return;
+
+        for (Emotion emotion : oldEmotions) {
+            removed(position, emotion);
+        }
+        for (Emotion emotion : newEmotions) {
+            added(position, emotion);
+        }
+    }
+
+    /*позиции изображений, у которых есть эмоции всех перечисленных типов */
+    BitSet all(Collection<String> types) {
+        BitSet result = null;
+        for (String type : types) {
+            BitSet positions = positionsByKey.get(key(type));
+            if (positions == null) return new BitSet();
+
+            if (result == null) {
+                result = (BitSet) positions.clone();
+            } else {
+                result.and(positions);
+            }
+        }
+        return result != null ? result : new BitSet();
+    }
+
+    /*позиции изображений, у которых есть эмоция хотя бы одного из типов */
+    BitSet any(Collection<String> types) {
+        BitSet result = new BitSet();
+        for (String type : types) {
+            BitSet positions = positionsByKey.get(key(type));
+            if (positions != null) {
+                result.or(positions);
+            }
+        }
+        return result;
+    }
+
+    int count(String type) {
+        BitSet positions = positionsByKey.get(key(type));
+        return positions != null ? positions.cardinality() : 0;
+    }
+
+    //регистр не важен: "Smiley:Love" и "smiley:love" - один ключ
+    static String key(String type) {
+        return type.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private void change(int position, Emotion emotion, int delta) {
+        String type = keysByType.computeIfAbsent(emotion.getType(), EmotionTypeIndex::key);
+        count(type, position, delta);
+        if (emotion instanceof SmileyEmotion && ((SmileyEmotion) emotion).getSmileyType() != null) {
+            String subtype = subtypeKeys.computeIfAbsent(((SmileyEmotion) emotion).getSmileyType(),
+                    smiley -> type + SUBTYPE_SEPARATOR + key(smiley.name()));
+            count(subtype, position, delta);
+        }
+    }
+
+    private void count(String key, int position, int delta) {
+        int[] counts = countsByKey.get(key);
+        if (counts == null || counts.length <= position) {
+            if (delta < 0) return; //у позиции и не было эмоций этого ключа
+            counts = Arrays.copyOf(counts != null ? counts : new int[0],
+                    Math.max(position + 1, counts != null ? counts.length * 2 : 16));
+            countsByKey.put(key, counts);
+        }
+
+        int before = counts[position];
+        int after = Math.max(0, before + delta);
+        counts[position] = after;
+        if (before == 0 && after > 0) {
+            positionsByKey.computeIfAbsent(key, k -> new BitSet()).set(position);
+        } else if (before > 0 && after == 0) {
+            positionsByKey.get(key).clear(position);
+        }
+    }
+}
@@ -2,26 +2,55 @@ package com.example.iterator.model;
 
 import com.example.iterator.emotions.Emotion;
 import java.io.File;
-import java.io.FilenameFilter;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import javafx.scene.image.Image;
-import java.util.*;
 
 public class EnhancedImageAggregate implements ImageAggregate {
 
     private final List<ImageWithEmotions> images = new ArrayList<>();
     private final Map<String, ImageWithEmotions> hashMap = new HashMap<>();
     private final Map<File, ImageWithEmotions> fileMap = new HashMap<>();
+    //позиция изображения в images по хэшу; меняется вместе с images, hashMap и fileMap под монитором this
+    private final Map<String, Integer> indexByHash = new HashMap<>();
+    //позиционные индексы пересобираются (имен - сдвигается), когда удаление файлов сдвигает позиции
+    private EmotionTypeIndex typeIndex = new EmotionTypeIndex();
+    private final NameIndex nameIndex = new NameIndex();
+    private final AlbumStatistics statistics;
+    private SortedViews sortedViews; //строится при первом запросе сортировки
+    private ThumbnailStore thumbnailStore;
     private final String sourceDirectory;
     private final String filter;
+    private final FingerprintMode fingerprintMode;
     private boolean loaded = false;
+    private long generation = 0; //растет с каждым непустым applyChanges - позиции и хэши могли измениться
+    //открытые итераторы - их позиции сдвигаются при удалении файлов
+    private final List<WeakReference<EnhancedImageIterator>> iterators = new ArrayList<>();
 
     public EnhancedImageAggregate(String directoryPath, String filter) {
+        this(directoryPath, filter, FingerprintMode.METADATA);
+    }
+
+    public EnhancedImageAggregate(String directoryPath, String filter, FingerprintMode fingerprintMode) {
         this.sourceDirectory = directoryPath;
         this.filter = filter;
+        this.fingerprintMode = fingerprintMode;
+        this.statistics = new AlbumStatistics(new File(directoryPath));
+    }
+
+    public FingerprintMode getFingerprintMode() {
+        return fingerprintMode;
     }
 
     public void loadImages() {
+        loadImages(Runtime.getRuntime().availableProcessors());
+    }
+
+    /*parallelism - число потоков для обхода каталогов и расчета хэшей */
+    public synchronized void loadImages(int parallelism) {
         if (loaded) return;
 
         File directory = new File(sourceDirectory);
@@ -29,35 +58,197 @@ public class EnhancedImageAggregate implements ImageAggregate {
             throw new IllegalArgumentException("Invalid directory: " + sourceDirectory);
         }
 
-        loadImagesRecursive(directory);
+        for (ImageWithEmotions image : scan(parallelism)) {
+            append(image);
+        }
+        FingerprintCache.getInstance(fingerprintMode).flush();
+        openThumbnailStore(directory);
         loaded = true;
     }
 
-    private void loadImagesRecursive(File directory) {
-        FilenameFilter filenameFilter = (dir, name) -> {
-            File file = new File(dir, name);
-            if (name.startsWith(".")) return false;
-            if (file.isDirectory()) return true;
-            return matchesFilter(name, filter);
-        };
+    List<ImageWithEmotions> scan(int parallelism) {
+        ImageScanner scanner = new ImageScanner(name -> matchesFilter(name, filter), parallelism,
+                FingerprintService.getInstance(fingerprintMode));
+        return scanner.scan(new File(sourceDirectory).toPath());
+    }
+
+    private void append(ImageWithEmotions image) {
+        indexByHash.put(image.getImageHash(), images.size());
+        typeIndex.add(images.size(), image);
+        nameIndex.add(images.size(), image.getFileName());
+        statistics.imageAdded(image);
+        images.add(image);
+        hashMap.put(image.getImageHash(), image);
+        fileMap.put(image.getImageFile(), image);
+    }
+
+    //для AlbumWatcher: те же правила отбора и расчета хэша, что и при сканировании
+
+    File getRoot() {
+        return new File(sourceDirectory);
+    }
+
+    boolean accepts(Path file) {
+        String name = file.getFileName().toString();
+        return !name.startsWith(".") && matchesFilter(name, filter);
+    }
+
+    ImageWithEmotions createImage(Path file, BasicFileAttributes attrs) {
+        return new ImageWithEmotions.Builder(file.toFile(), attrs, FingerprintService.getInstance(fingerprintMode)).build();
+    }
 
-        File[] files = directory.listFiles(filenameFilter);
-        if (files == null) return;
+    synchronized ImageWithEmotions findByFile(File file) {
+        return fileMap.get(file);
+    }
 
-        for (File file : files) {
-            if (file.isDirectory()) {
-                loadImagesRecursive(file);
+    synchronized List<File> getFiles() {
+        List<File> files = new ArrayList<>(images.size());
+        for (ImageWithEmotions image : images) {
+            files.add(image.getImageFile());
+        }
+        return files;
+    }
+
+    /*изменения файлов пакетом (от AlbumWatcher): изображения для новых и изменившихся файлов уже построены,
+      removedFiles - удаленные файлы, removedDirectories - удаленные каталоги (удаляется все, что под ними)
+      новые файлы встают в конец альбома, изменившиеся - на свое место с прежними эмоциями
+      (если хэш сменился, перенос в хранилище эмоций - за слушателем, см. AlbumChange.getRehashed);
+      удаление сдвигает позиции - позиционные индексы пересобираются один раз на пакет,
+      открытые итераторы сдвигаются вслед за своим изображением */
+    public synchronized AlbumChange applyChanges(Collection<ImageWithEmotions> upserts,
+                                                 Collection<Path> removedFiles, Collection<Path> removedDirectories) {
+        List<File> added = new ArrayList<>();
+        List<File> updated = new ArrayList<>();
+        List<AlbumChange.Rehash> rehashed = new ArrayList<>();
+        List<File> removed = removeAll(removedFiles, removedDirectories);
+
+        for (ImageWithEmotions fresh : upserts) {
+            ImageWithEmotions old = fileMap.get(fresh.getImageFile());
+            if (old == null) {
+                append(fresh);
+                added.add(fresh.getImageFile());
             } else {
-                try {
-                    ImageWithEmotions image = new ImageWithEmotions.Builder(file).build();
-                    images.add(image);
-                    hashMap.put(image.getImageHash(), image);
-                    fileMap.put(file, image);
-                } catch (Exception e) {
-                    System.err.println("Error loading image: " + file.getAbsolutePath());
+                ImageWithEmotions image = new ImageWithEmotions.Builder(fresh)
+                        .withEmotions(old.getEmotions())
+                        .build();
+                replace(indexOf(old), old, image);
+                statistics.imageRemoved(old);
+                statistics.imageAdded(image);
+                updated.add(image.getImageFile());
+                if (!image.getEmotions().isEmpty() && !Objects.equals(old.getImageHash(), image.getImageHash())) {
+                    rehashed.add(new AlbumChange.Rehash(old.getImageHash(), image));
                 }
             }
         }
+        if (!added.isEmpty()) {
+            sortedViews = null; //размер перестановок фиксирован - построятся заново при запросе
+        }
+        if (!added.isEmpty() || !updated.isEmpty() || !removed.isEmpty()) {
+            generation++;
+        }
+        return new AlbumChange(added, updated, removed, rehashed);
+    }
+
+    /*без удаленных каталогов - один проход по альбому на пакет; каждый каталог добавляет проверку префикса */
+    private List<File> removeAll(Collection<Path> files, Collection<Path> directories) {
+        Set<File> exact = new HashSet<>();
+        for (Path path : files) {
+            File file = path.toFile();
+            if (fileMap.containsKey(file)) {
+                exact.add(file);
+            }
+        }
+        if (exact.isEmpty() && directories.isEmpty()) return List.of();
+
+        List<ImageWithEmotions> kept = new ArrayList<>(images.size());
+        List<File> removedFiles = new ArrayList<>();
+        int[] removedPositions = new int[images.size()];
+        int removedCount = 0;
+        FingerprintCache fingerprints = FingerprintCache.getInstance(fingerprintMode);
+        for (int i = 0; i < images.size(); i++) {
+            ImageWithEmotions image = images.get(i);
+            if (exact.contains(image.getImageFile())
+                    || !directories.isEmpty() && isUnder(image.getImageFile().toPath(), directories)) {
+                removedPositions[removedCount++] = i;
+                removedFiles.add(image.getImageFile());
+                fileMap.remove(image.getImageFile());
+                statistics.imageRemoved(image);
+                fingerprints.remove(image.getImageFile().toPath());
+            } else {
+                kept.add(image);
+            }
+        }
+        if (removedFiles.isEmpty()) return List.of();
+
+        images.clear();
+        images.addAll(kept);
+        int[] positions = Arrays.copyOf(removedPositions, removedCount);
+        rebuildIndexes(positions);
+        iterators.removeIf(reference -> reference.get() == null);
+        for (WeakReference<EnhancedImageIterator> reference : iterators) {
+            EnhancedImageIterator iterator = reference.get();
+            if (iterator != null) {
+                iterator.positionsRemoved(positions);
+            }
+        }
+        return removedFiles;
+    }
+
+    private static boolean isUnder(Path file, Collection<Path> directories) {
+        for (Path directory : directories) {
+            if (file.startsWith(directory)) return true;
+        }
+        return false;
+    }
+
+    /*после удаления позиций removed; индекс имен только сдвигает позиции, триграммы остаются */
+    private void rebuildIndexes(int[] removed) {
+        hashMap.clear();
+        indexByHash.clear();
+        typeIndex = new EmotionTypeIndex();
+        nameIndex.positionsRemoved(removed);
+        sortedViews = null;
+        for (int i = 0; i < images.size(); i++) {
+            ImageWithEmotions image = images.get(i);
+            indexByHash.put(image.getImageHash(), i);
+            typeIndex.add(i, image);
+            hashMap.put(image.getImageHash(), image);
+        }
+    }
+
+    /*миниатюры альбома в скрытых файлах его корня; без прав на запись сетка просто строит их каждый раз */
+    private void openThumbnailStore(File directory) {
+        try {
+            thumbnailStore = ThumbnailStore.open(directory);
+            //с фильтром по формату видна только часть альбома - чистить по ней нельзя
+            if (filter.equals("Все изображения")) {
+                thumbnailStore.retain(hashMap.keySet()); //в фоне
+            }
+        } catch (IOException e) {
+            System.err.println("Thumbnail store unavailable: " + e.getMessage());
+            thumbnailStore = null;
+        }
+    }
+
+    /*null, если хранилище миниатюр открыть не удалось */
+    public ThumbnailStore getThumbnailStore() {
+        return thumbnailStore;
+    }
+
+    /*почти одинаковые изображения (серии, повторные экспорты) по перцептивному хэшу;
+      хэши считаются по снимку альбома вне блокировки, долго при первом запуске - вызывать в фоне */
+    public DuplicateFinder findDuplicates(int parallelism) {
+        List<ImageWithEmotions> snapshot;
+        long snapshotGeneration;
+        synchronized (this) {
+            snapshot = new ArrayList<>(images);
+            snapshotGeneration = generation;
+        }
+        return DuplicateFinder.build(snapshot, parallelism).forGeneration(snapshotGeneration);
+    }
+
+    public synchronized long getGeneration() {
+        return generation;
     }
 
     private boolean matchesFilter(String fileName, String filter) {
@@ -84,8 +275,10 @@ public class EnhancedImageAggregate implements ImageAggregate {
     //ImageAggregate интерфейс
 
     @Override
-    public ImageIterator getIterator() {
-        return new EnhancedImageIterator();
+    public synchronized ImageIterator getIterator() {
+        EnhancedImageIterator iterator = new EnhancedImageIterator();
+        iterators.add(new WeakReference<>(iterator));
+        return iterator;
     }
 
     @Override
@@ -102,104 +295,209 @@ public class EnhancedImageAggregate implements ImageAggregate {
     }
 
     @Override
-    public List<ImageWithEmotions> findByName(String fileName) {
-        List<ImageWithEmotions> result = new ArrayList<>();
-        for (ImageWithEmotions image : images) {
-            if (image.getFileName().equalsIgnoreCase(fileName)) {
-                result.add(image);
-            }
+    public synchronized List<ImageWithEmotions> findByName(String fileName) {
+        int[] positions = nameIndex.exact(fileName);
+        Arrays.sort(positions); //в порядке альбома, как при прежнем переборе
+        return imagesAt(positions);
+    }
+
+    /*для поиска по мере ввода: имена, начинающиеся с prefix, по алфавиту */
+    @Override
+    public synchronized List<ImageWithEmotions> findByNamePrefix(String prefix, int limit) {
+        return imagesAt(nameIndex.prefix(prefix, limit));
+    }
+
+    @Override
+    public synchronized List<ImageWithEmotions> findByNameSubstring(String query, int limit) {
+        return imagesAt(nameIndex.substring(query, limit));
+    }
+
+    private List<ImageWithEmotions> imagesAt(int[] positions) {
+        List<ImageWithEmotions> result = new ArrayList<>(positions.length);
+        for (int position : positions) {
+            result.add(images.get(position));
         }
         return result;
     }
 
+    /*emotionType - тип ("smiley", "text", "custom") или подтип смайлика ("smiley:love") */
     @Override
-    public List<ImageWithEmotions> getImagesWithEmotionType(String emotionType) {
-        List<ImageWithEmotions> result = new ArrayList<>();
-        for (ImageWithEmotions image : images) {
-            if (image.getEmotionCountByType(emotionType) > 0) {
-                result.add(image);
-            }
+    public synchronized List<ImageWithEmotions> getImagesWithEmotionType(String emotionType) {
+        return imagesAt(typeIndex.all(List.of(emotionType)));
+    }
+
+    @Override
+    public synchronized List<ImageWithEmotions> getImagesWithAllEmotionTypes(Collection<String> emotionTypes) {
+        return imagesAt(typeIndex.all(emotionTypes));
+    }
+
+    @Override
+    public synchronized List<ImageWithEmotions> getImagesWithAnyEmotionType(Collection<String> emotionTypes) {
+        return imagesAt(typeIndex.any(emotionTypes));
+    }
+
+    @Override
+    public synchronized int countImagesWithEmotionType(String emotionType) {
+        return typeIndex.count(emotionType);
+    }
+
+    private List<ImageWithEmotions> imagesAt(BitSet positions) {
+        List<ImageWithEmotions> result = new ArrayList<>(positions.cardinality());
+        for (int i = positions.nextSetBit(0); i >= 0; i = positions.nextSetBit(i + 1)) {
+            result.add(images.get(i));
         }
         return result;
     }
 
     @Override
-    public void addEmotion(int index, Emotion emotion) {
+    public synchronized void addEmotion(int index, Emotion emotion) {
         ImageWithEmotions oldImage = images.get(index);
         ImageWithEmotions newImage = oldImage.addEmotion(emotion);
-
-        images.set(index, newImage);
-        hashMap.put(newImage.getImageHash(), newImage);
-        fileMap.put(newImage.getImageFile(), newImage);
+        if (newImage != oldImage) {
+            replace(index, oldImage, newImage, false);
+            typeIndex.added(index, emotion);
+            statistics.emotionAdded(newImage, emotion);
+        }
     }
 
     @Override
-    public boolean addEmotionByHash(String hash, Emotion emotion) {
+    public synchronized boolean addEmotionByHash(String hash, Emotion emotion) {
         ImageWithEmotions image = hashMap.get(hash);
         if (image != null) {
             ImageWithEmotions newImage = image.addEmotion(emotion);
-            int index = images.indexOf(image);
-            if (index != -1) {
-                images.set(index, newImage);
+            if (newImage != image) {
+                int index = indexOf(image);
+                replace(index, image, newImage, false);
+                if (index != -1) {
+                    typeIndex.added(index, emotion);
+                }
+                statistics.emotionAdded(newImage, emotion);
             }
-            hashMap.put(newImage.getImageHash(), newImage);
-            fileMap.put(newImage.getImageFile(), newImage);
             return true;
         }
         return false;
     }
 
     @Override
-    public boolean removeEmotion(String imageHash, String emotionId) {
+    public synchronized boolean removeEmotion(String imageHash, String emotionId) {
         ImageWithEmotions image = hashMap.get(imageHash);
         if (image != null) {
             ImageWithEmotions newImage = image.removeEmotion(emotionId);
-            int index = images.indexOf(image);
-            if (index != -1) {
-                images.set(index, newImage);
+            if (newImage != image) {
+                List<Emotion> removed = new ArrayList<>();
+                for (Emotion emotion : image.getEmotions()) {
+                    if (emotion.getId().equals(emotionId)) {
+                        removed.add(emotion);
+                    }
+                }
+                int index = indexOf(image);
+                replace(index, image, newImage, false);
+                if (index != -1) {
+                    for (Emotion emotion : removed) {
+                        typeIndex.removed(index, emotion);
+                    }
+                }
+                statistics.emotionsRemoved(newImage, removed);
             }
-            hashMap.put(newImage.getImageHash(), newImage);
-            fileMap.put(newImage.getImageFile(), newImage);
             return true;
         }
         return false;
     }
 
-    @Override
-    public Map<String, Object> getStatistics() {
-        Map<String, Object> stats = new HashMap<>();
-        stats.put("totalImages", images.size());
+    /*позиция изображения за O(1); линейный поиск (по ссылке) только для файлов с одинаковым хэшем,
+      где indexByHash указывает на другой из них */
+    private int indexOf(ImageWithEmotions image) {
+        Integer index = indexByHash.get(image.getImageHash());
+        if (index != null && images.get(index) == image) {
+            return index;
+        }
+        for (int i = 0; i < images.size(); i++) {
+            if (images.get(i) == image) return i;
+        }
+        return -1;
+    }
 
-        int totalEmotions = 0;
-        Map<String, Integer> emotionTypeStats = new HashMap<>();
+    /*заменяет изображение сразу в списке и во всех индексах */
+    private void replace(int index, ImageWithEmotions oldImage, ImageWithEmotions newImage) {
+        replace(index, oldImage, newImage, true);
+    }
 
-        for (ImageWithEmotions image : images) {
-            totalEmotions += image.getEmotions().size();
-            for (Emotion emotion : image.getEmotions()) {
-                String type = emotion.getType();
-                emotionTypeStats.put(type, emotionTypeStats.getOrDefault(type, 0) + 1);
+    //reindexTypes == false - индекс типов вызывающий меняет сам, по одной эмоции
+    private void replace(int index, ImageWithEmotions oldImage, ImageWithEmotions newImage, boolean reindexTypes) {
+        if (index != -1) {
+            images.set(index, newImage);
+            if (reindexTypes) {
+                typeIndex.update(index, oldImage, newImage);
+            }
+            if (sortedViews != null) {
+                sortedViews.replaced(index, oldImage, newImage);
             }
+            if (!oldImage.getFileName().equals(newImage.getFileName())) {
+                nameIndex.remove(index, oldImage.getFileName());
+                nameIndex.add(index, newImage.getFileName());
+            }
+        }
+        if (hashMap.get(oldImage.getImageHash()) == oldImage) {
+            hashMap.remove(oldImage.getImageHash());
+            indexByHash.remove(oldImage.getImageHash());
         }
+        fileMap.remove(oldImage.getImageFile());
 
-        stats.put("totalEmotions", totalEmotions);
-        stats.put("emotionTypes", emotionTypeStats);
-        return stats;
+        hashMap.put(newImage.getImageHash(), newImage);
+        fileMap.put(newImage.getImageFile(), newImage);
+        if (index != -1) {
+            indexByHash.put(newImage.getImageHash(), index);
+        }
+    }
+
+    /*без блокировки и без обхода изображений - счетчики ведутся при каждом изменении */
+    @Override
+    public Map<String, Object> getStatistics() {
+        return statistics.snapshot();
     }
 
     @Override
-    public List<ImageWithEmotions> getImagesSortedByEmotionCount() {
-        List<ImageWithEmotions> sorted = new ArrayList<>(images);
-        sorted.sort((img1, img2) ->
-                Integer.compare(img2.getEmotions().size(), img1.getEmotions().size()));
-        return sorted;
+    public synchronized List<ImageWithEmotions> getImagesSortedByEmotionCount() {
+        return sortedViews().byEmotionCount(images);
     }
 
+    /*рейтинг "больше всего реакций" поддерживается при каждом изменении, поэтому top(k) не сортирует альбом */
     @Override
-    public List<ImageWithEmotions> getImagesSortedByDate() {
-        List<ImageWithEmotions> sorted = new ArrayList<>(images);
-        sorted.sort((img1, img2) ->
-                Long.compare(img2.getLastModified(), img1.getLastModified()));
-        return sorted;
+    public synchronized List<ImageWithEmotions> getTopByEmotionCount(int k) {
+        return sortedViews().topByEmotionCount(k, images);
+    }
+
+    /*место изображения в рейтинге по числу эмоций (с 1) или -1, если хэша нет в альбоме */
+    @Override
+    public synchronized int getEmotionRank(String hash) {
+        ImageWithEmotions image = hashMap.get(hash);
+        if (image == null) return -1;
+
+        int index = indexOf(image);
+        return index != -1 ? sortedViews().emotionRankOf(index) : -1;
+    }
+
+    //ключи взяты при сканировании, файловая система при сортировке не трогается
+    @Override
+    public synchronized List<ImageWithEmotions> getImagesSortedByDate() {
+        return sortedViews().byDate(images);
+    }
+
+    @Override
+    public synchronized List<ImageWithEmotions> getImagesSortedBySize() {
+        return sortedViews().bySize(images);
+    }
+
+    @Override
+    public synchronized List<ImageWithEmotions> getImagesSortedByName() {
+        return sortedViews().byName(images);
+    }
+
+    private SortedViews sortedViews() {
+        if (sortedViews == null) {
+            sortedViews = new SortedViews(images);
+        }
+        return sortedViews;
     }
 
     @Override
@@ -213,38 +511,27 @@ public class EnhancedImageAggregate implements ImageAggregate {
     }
 
     @Override
-    public boolean updateImageFile(File oldFile, File newFile) {
+    public synchronized boolean updateImageFile(File oldFile, File newFile) {
         ImageWithEmotions image = fileMap.get(oldFile);
         if (image != null) {
-            ImageWithEmotions updatedImage = new ImageWithEmotions.Builder(newFile)
-                    .withCustomHash(image.getImageHash())
-                    .withEmotions(image.getEmotions())
-                    .withMetadata(image.getMetadata())
-                    .build();
-
-            int index = images.indexOf(image);
-            if (index != -1) {
-                images.set(index, updatedImage);
-            }
-
-            hashMap.remove(image.getImageHash());
-            fileMap.remove(oldFile);
-            hashMap.put(updatedImage.getImageHash(), updatedImage);
-            fileMap.put(newFile, updatedImage);
+            ImageWithEmotions updatedImage = new ImageWithEmotions.Builder(image, newFile).build();
 
+            replace(indexOf(image), image, updatedImage);
+            statistics.imageRemoved(image);
+            statistics.imageAdded(updatedImage);
             return true;
         }
         return false;
     }
 
     @Override
-    public void clearAllEmotions() {
+    public synchronized void clearAllEmotions() {
         for (int i = 0; i < images.size(); i++) {
             ImageWithEmotions image = images.get(i);
-            ImageWithEmotions clearedImage = new ImageWithEmotions.Builder(image.getImageFile())
-                    .withMetadata(image.getMetadata())
-                    .build();
-            images.set(i, clearedImage);
+            if (image.getEmotions().isEmpty()) continue;
+            ImageWithEmotions clearedImage = new ImageWithEmotions.Builder(image).withoutEmotions().build();
+            replace(i, image, clearedImage);
+            statistics.emotionsRemoved(image, image.getEmotions());
         }
     }
 
@@ -335,8 +622,16 @@ public class EnhancedImageAggregate implements ImageAggregate {
         public Image getCurrentAsJavaFXImage() {
             ImageWithEmotions currentImage = current();
             if (currentImage != null) {
+                //уже декодированное (в том числе загрузчиком слайд-шоу) берем из кэша
+                DecodedImageCache cache = DecodedImageCache.getInstance();
+                Image cached = cache.get(currentImage.getImageHash(), 0, 0);
+                if (cached != null) return cached;
                 try {
-                    return new Image(currentImage.getImageFile().toURI().toString());
+                    Image image = new Image(currentImage.getImageFile().toURI().toString());
+                    if (!image.isError()) {
+                        cache.put(currentImage.getImageHash(), 0, 0, image);
+                    }
+                    return image;
                 } catch (Exception e) {
                     return null;
                 }
@@ -424,5 +719,33 @@ public class EnhancedImageAggregate implements ImageAggregate {
             currentIndex = -1;
             lastAccessed = -1;
         }
+
+        /*removed - удаленные позиции по возрастанию, images уже без них
+          показанное изображение удалено - итератор встает перед следующим за ним, как после goTo */
+        void positionsRemoved(int[] removed) {
+            if (images.isEmpty()) {
+                reset();
+                return;
+            }
+            if (lastAccessed >= 0 && Arrays.binarySearch(removed, lastAccessed) >= 0) {
+                lastAccessed = shifted(lastAccessed, removed);
+                if (lastAccessed >= images.size()) {
+                    lastAccessed = 0;
+                }
+                currentIndex = lastAccessed - 1;
+                return;
+            }
+            lastAccessed = lastAccessed >= 0 ? shifted(lastAccessed, removed) : lastAccessed;
+            if (currentIndex >= 0) {
+                boolean cursorRemoved = Arrays.binarySearch(removed, currentIndex) >= 0;
+                currentIndex = shifted(currentIndex, removed) - (cursorRemoved ? 1 : 0);
+            }
+        }
+
+        //позиция после удаления всех removed, меньших position
+        private int shifted(int position, int[] removed) {
+            int before = Arrays.binarySearch(removed, position);
+            return position - (before >= 0 ? before : -before - 1);
+        }
     }
 }
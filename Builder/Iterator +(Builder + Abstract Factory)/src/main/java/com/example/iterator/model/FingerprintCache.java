@@ -0,0 +1,269 @@
+package com.example.iterator.model;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*постоянный индекс хэшей файлов: (путь, размер, время изменения, fileKey) -> хэш
+  неизменившиеся файлы не читаются повторно, новые записи дописываются в конец файла */
+public final class FingerprintCache {
+
+    private static final int MAGIC = 0x46505231; //"FPR1"
+    private static final int FLUSH_THRESHOLD = 256;
+
+    //свой индекс для каждого способа расчета хэша
+    private static final Map<FingerprintMode, FingerprintCache> INSTANCES = new EnumMap<>(FingerprintMode.class);
+
+    private final Path indexFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private int recordsOnDisk = 0;
+    private boolean rewrite = false; //файл чужого формата - дописывать в него нельзя, только переписать
+
+    FingerprintCache(Path indexFile) {
+        this.indexFile = indexFile;
+        load();
+    }
+
+    public static FingerprintCache getInstance() {
+        return getInstance(FingerprintMode.METADATA);
+    }
+
+    public static FingerprintCache getInstance(FingerprintMode mode) {
+        synchronized (INSTANCES) {
+            return INSTANCES.computeIfAbsent(mode, FingerprintCache::createDefault);
+        }
+    }
+
+    private static FingerprintCache createDefault(FingerprintMode mode) {
+        Path dir = Path.of(System.getProperty("user.home"), ".cache", "photo_album");
+        FingerprintCache cache = new FingerprintCache(dir.resolve(mode.getIndexFileName()));
+        Runtime.getRuntime().addShutdownHook(new Thread(cache::flush, "fingerprint-cache-flush"));
+        return cache;
+    }
+
+    /*хэш из индекса или null, если записи нет или файл изменился */
+    public String lookup(Path file, BasicFileAttributes attrs) {
+        Entry entry = entries.get(key(file));
+        if (entry == null) return null;
+
+        if (entry.size != attrs.size()
+                || entry.lastModified != attrs.lastModifiedTime().toMillis()
+                || !entry.fileKey.equals(fileKey(attrs))) {
+            return null;
+        }
+        return entry.hash;
+    }
+
+    public void store(Path file, BasicFileAttributes attrs, String hash) {
+        Entry entry = new Entry(key(file), attrs.size(), attrs.lastModifiedTime().toMillis(),
+                fileKey(attrs), hash);
+        Entry previous = entries.put(entry.path, entry);
+        if (entry.equals(previous)) return;
+
+        pending.add(entry);
+        if (pendingCount.incrementAndGet() >= FLUSH_THRESHOLD) {
+            flush();
+        }
+    }
+
+    public void remove(Path file) {
+        Entry removed = entries.remove(key(file));
+        if (removed != null) {
+            //пустой хэш - отметка об удалении
+            pending.add(new Entry(removed.path, 0, 0, "", ""));
+            pendingCount.incrementAndGet();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /*дописывает накопленные записи; если мусора в файле больше, чем живых записей, переписывает индекс */
+    public synchronized void flush() {
+        List<Entry> batch = new ArrayList<>();
+        Entry entry;
+        while ((entry = pending.poll()) != null) {
+            batch.add(entry);
+        }
+        pendingCount.addAndGet(-batch.size());
+        if (batch.isEmpty()) return;
+
+        try {
+            if (rewrite || recordsOnDisk + batch.size() > 2 * Math.max(entries.size(), FLUSH_THRESHOLD)) {
+                compact();
+                return;
+            }
+
+            Files.createDirectories(indexFile.getParent());
+            boolean fresh = !Files.exists(indexFile) || Files.size(indexFile) == 0;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(indexFile.toFile(), true)))) {
+                if (fresh) {
+                    out.writeInt(MAGIC);
+                }
+                for (Entry e : batch) {
+                    e.write(out);
+                }
+            }
+            recordsOnDisk += batch.size();
+        } catch (IOException e) {
+            System.err.println("Error saving fingerprint cache: " + e.getMessage());
+        }
+    }
+
+    private void compact() throws IOException {
+        Files.createDirectories(indexFile.getParent());
+        Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        int written = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            for (Entry e : entries.values()) {
+                e.write(out);
+                written++;
+            }
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        recordsOnDisk = written;
+        rewrite = false;
+    }
+
+    /*оборванная при сбое последняя запись отрезается, чтобы новые записи не дописывались после нее */
+    private void load() {
+        if (!Files.exists(indexFile)) return;
+
+        long good = 0;
+        try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(
+                Files.newInputStream(indexFile)));
+             DataInputStream in = new DataInputStream(counter)) {
+            if (in.readInt() != MAGIC) {
+                System.err.println("Unknown fingerprint cache format, will be rewritten: " + indexFile);
+                rewrite = true;
+                return;
+            }
+            good = counter.count;
+            while (true) {
+                Entry e = Entry.read(in);
+                good = counter.count;
+                recordsOnDisk++;
+                if (e.hash.isEmpty()) {
+                    entries.remove(e.path);
+                } else {
+                    entries.put(e.path, e);
+                }
+            }
+        } catch (EOFException e) {
+            //конец файла или оборванная последняя запись
+        } catch (IOException e) {
+            System.err.println("Error loading fingerprint cache: " + e.getMessage());
+            rewrite = true;
+            return;
+        }
+
+        try {
+            if (good < Files.size(indexFile)) {
+                try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.WRITE)) {
+                    channel.truncate(good);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error truncating fingerprint cache: " + e.getMessage());
+            rewrite = true;
+        }
+    }
+
+    //сколько байт прочитано - граница последней целой записи
+    private static final class CountingInputStream extends FilterInputStream {
+        long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    private static String fileKey(BasicFileAttributes attrs) {
+        Object fileKey = attrs.fileKey();
+        return fileKey != null ? fileKey.toString() : "";
+    }
+
+    private static final class Entry {
+        final String path;
+        final long size;
+        final long lastModified;
+        final String fileKey;
+        final String hash;
+
+        Entry(String path, long size, long lastModified, String fileKey, String hash) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.hash = hash;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(path);
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.writeUTF(fileKey);
+            out.writeUTF(hash);
+        }
+
+        static Entry read(DataInputStream in) throws IOException {
+            return new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readUTF(), in.readUTF());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) return false;
+            Entry other = (Entry) o;
+            return size == other.size && lastModified == other.lastModified
+                    && path.equals(other.path) && fileKey.equals(other.fileKey) && hash.equals(other.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, size, lastModified, fileKey, hash);
+        }
+    }
+}
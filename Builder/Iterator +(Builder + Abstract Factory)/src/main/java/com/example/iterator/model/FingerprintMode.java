@@ -0,0 +1,21 @@
+package com.example.iterator.model;
+
+/*способ вычисления хэша файла, выбирается для альбома
+  METADATA - имя, размер, время создания и первые 1024 байта через MD5: быстро, но переименованный
+             файл получает новый хэш, а отредактированные фото с одинаковым заголовком совпадают
+  CONTENT  - все содержимое файла через MurmurHash3 x64 128: хэш не зависит от имени и места,
+             побайтно одинаковые копии получают один хэш */
+public enum FingerprintMode {
+    METADATA("fingerprints.idx"),
+    CONTENT("fingerprints-content.idx");
+
+    private final String indexFileName;
+
+    FingerprintMode(String indexFileName) {
+        this.indexFileName = indexFileName;
+    }
+
+    String getIndexFileName() {
+        return indexFileName;
+    }
+}
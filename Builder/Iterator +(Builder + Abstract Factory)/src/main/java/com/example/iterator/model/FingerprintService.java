@@ -0,0 +1,443 @@
+package com.example.iterator.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/*единая точка расчета хэшей файлов
+  память процесса (ограниченная таблица) -> постоянный индекс FingerprintCache -> чтение файла
+  записи таблицы сбрасываются по событиям WatchService, поэтому повторный запрос не делает I/O
+  каталог наблюдается, пока в таблице есть его файлы; каталоги альбома, за которым следит AlbumWatcher,
+  повторно не регистрируются - события передает он (watchedExternally/invalidate)
+  хэш считается без блокировки, поэтому событие может прийти во время расчета: каждое сбрасывание
+  увеличивает счетчик invalidations, и хэш, посчитанный до него, в таблицу не попадает */
+public final class FingerprintService {
+
+    private static final int DEFAULT_CAPACITY = 100_000;
+    private static final long CONTENT_CHUNK_SIZE = 64L * 1024 * 1024; //большие файлы хэшируются частями параллельно
+    private static final int MAPPED_THRESHOLD = 256 * 1024;          //мелкие файлы дешевле прочитать, чем отобразить
+
+    private static final Map<FingerprintMode, FingerprintService> INSTANCES = new EnumMap<>(FingerprintMode.class);
+
+    private final FingerprintMode mode;
+    private final FingerprintCache cache;
+    private final int capacity;
+    //под монитором memo: порядок доступа - первым вытесняется давно не запрошенный файл
+    private final LinkedHashMap<Path, Memo> memo = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Path, WatchKey> watchKeys = new HashMap<>();
+    private final Map<Path, Integer> memoEntriesByDirectory = new HashMap<>();
+    private final Set<Path> unwatchableDirectories = ConcurrentHashMap.newKeySet();
+    private final Set<Path> externalRoots = ConcurrentHashMap.newKeySet();
+    private long invalidations = 0; //под монитором memo
+    private WatchService watchService;
+
+    FingerprintService(FingerprintCache cache, int capacity) {
+        this(FingerprintMode.METADATA, cache, capacity);
+    }
+
+    FingerprintService(FingerprintMode mode, FingerprintCache cache, int capacity) {
+        this.mode = mode;
+        this.cache = cache;
+        this.capacity = capacity;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            Thread watcher = new Thread(this::processEvents, "fingerprint-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        } catch (IOException | UnsupportedOperationException e) {
+            //без WatchService таблица в памяти не используется
+            watchService = null;
+        }
+    }
+
+    public static FingerprintService getInstance() {
+        return getInstance(FingerprintMode.METADATA);
+    }
+
+    public static FingerprintService getInstance(FingerprintMode mode) {
+        synchronized (INSTANCES) {
+            return INSTANCES.computeIfAbsent(mode,
+                    m -> new FingerprintService(m, FingerprintCache.getInstance(m), DEFAULT_CAPACITY));
+        }
+    }
+
+    public FingerprintMode getMode() {
+        return mode;
+    }
+
+    public String fingerprint(File file) {
+        Path path = key(file);
+        String hash = remembered(path, null);
+        if (hash != null) return hash;
+
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return fallbackHash(file);
+        }
+        return fingerprint(path, attrs);
+    }
+
+    /*вариант для сканера, когда атрибуты уже прочитаны; запомненный хэш с другими размером или временем
+      изменения не используется */
+    public String fingerprint(File file, BasicFileAttributes attrs) {
+        Path path = key(file);
+        String hash = remembered(path, attrs);
+        return hash != null ? hash : fingerprint(path, attrs);
+    }
+
+    private String fingerprint(Path path, BasicFileAttributes attrs) {
+        Pending pending = prepareToRemember(path, attrs);
+        String hash = cache.lookup(path, attrs);
+        if (hash == null) {
+            hash = mode == FingerprintMode.CONTENT
+                    ? calculateContentHash(path, attrs)
+                    : calculateFileHash(path.toFile(), attrs);
+            cache.store(path, attrs, hash);
+        }
+        if (pending != null) {
+            remember(path, new Memo(hash, attrs), pending);
+        }
+        return hash;
+    }
+
+    public void invalidate(File file) {
+        synchronized (memo) {
+            invalidations++;
+            forget(key(file));
+        }
+    }
+
+    /*все файлы под root (например, после OVERFLOW у внешнего наблюдателя) */
+    public void invalidateUnder(Path root) {
+        Path normalized = root.toAbsolutePath().normalize();
+        synchronized (memo) {
+            invalidations++;
+            List<Path> stale = new ArrayList<>();
+            for (Path path : memo.keySet()) {
+                if (path.startsWith(normalized)) stale.add(path);
+            }
+            stale.forEach(this::forget);
+        }
+    }
+
+    /*за деревом root следит вызывающий (AlbumWatcher) и сообщает об изменениях через invalidate:
+      свои регистрации каталогов под root снимаются */
+    public void watchedExternally(Path root) {
+        Path normalized = root.toAbsolutePath().normalize();
+        externalRoots.add(normalized);
+        synchronized (memo) {
+            watchKeys.entrySet().removeIf(entry -> {
+                if (!entry.getKey().startsWith(normalized)) return false;
+                entry.getValue().cancel();
+                return true;
+            });
+        }
+    }
+
+    /*внешнее наблюдение закончилось - запомненные хэши под root больше никто не сбросит */
+    public void externalWatchEnded(Path root) {
+        Path normalized = root.toAbsolutePath().normalize();
+        externalRoots.remove(normalized);
+        invalidateUnder(normalized);
+    }
+
+    public int memoSize() {
+        synchronized (memo) {
+            return memo.size();
+        }
+    }
+
+    int watchedDirectoryCount() {
+        synchronized (memo) {
+            return watchKeys.size();
+        }
+    }
+
+    //attrs == null - без сверки (вызывающий не читал атрибуты)
+    private String remembered(Path path, BasicFileAttributes attrs) {
+        synchronized (memo) {
+            Memo entry = memo.get(path);
+            if (entry == null || attrs != null && !entry.matches(attrs)) return null;
+            return entry.hash;
+        }
+    }
+
+    /*наблюдение за каталогом включается до расчета хэша, чтобы события во время расчета не пропали;
+      null - файл запоминать нельзя */
+    private Pending prepareToRemember(Path path, BasicFileAttributes attrs) {
+        Path directory = path.getParent();
+        if (directory == null) return null;
+
+        Pending pending;
+        synchronized (memo) {
+            if (isWatchedExternally(directory)) return new Pending(invalidations, null);
+            WatchKey key = watchKeys.get(directory);
+            if (key != null) return new Pending(invalidations, key);
+            if (!watch(directory)) return null;
+            pending = new Pending(invalidations, watchKeys.get(directory));
+        }
+        //каталог только что зарегистрирован: об изменении до регистрации события не будет - сверяем stat
+        try {
+            BasicFileAttributes current = Files.readAttributes(path, BasicFileAttributes.class);
+            if (current.size() == attrs.size()
+                    && current.lastModifiedTime().toMillis() == attrs.lastModifiedTime().toMillis()) {
+                return pending;
+            }
+        } catch (IOException e) {
+            //файл уже удален
+        }
+        synchronized (memo) {
+            releaseIfUnused(directory);
+        }
+        return null;
+    }
+
+    /*хэш не запоминается, если во время расчета что-то сбросили или ключ каталога сменился
+      (между отменой и новой регистрацией события терялись) */
+    private void remember(Path path, Memo entry, Pending pending) {
+        Path directory = path.getParent();
+
+        synchronized (memo) {
+            boolean watched = pending.key == null
+                    ? isWatchedExternally(directory)
+                    : watchKeys.get(directory) == pending.key;
+            if (pending.invalidations != invalidations || !watched) {
+                releaseIfUnused(directory);
+                return;
+            }
+            if (memo.put(path, entry) == null) {
+                memoEntriesByDirectory.merge(directory, 1, Integer::sum);
+                while (memo.size() > capacity) {
+                    forget(memo.keySet().iterator().next());
+                }
+            }
+        }
+    }
+
+    //под монитором memo; последний файл каталога ушел из таблицы - наблюдение за каталогом снимается
+    private void forget(Path path) {
+        if (memo.remove(path) == null) return;
+
+        Path directory = path.getParent();
+        Integer left = memoEntriesByDirectory.merge(directory, -1, Integer::sum);
+        if (left != null && left <= 0) {
+            memoEntriesByDirectory.remove(directory);
+            releaseIfUnused(directory);
+        }
+    }
+
+    //под монитором memo
+    private void releaseIfUnused(Path directory) {
+        if (memoEntriesByDirectory.containsKey(directory)) return;
+        WatchKey key = watchKeys.remove(directory);
+        if (key != null) {
+            key.cancel();
+        }
+    }
+
+    private boolean isWatchedExternally(Path directory) {
+        for (Path root : externalRoots) {
+            if (directory.startsWith(root)) return true;
+        }
+        return false;
+    }
+
+    //под монитором memo
+    private boolean watch(Path directory) {
+        if (watchService == null || unwatchableDirectories.contains(directory)) return false;
+        if (watchKeys.containsKey(directory)) return true;
+
+        try {
+            watchKeys.put(directory, directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY));
+            return true;
+        } catch (IOException e) {
+            //например, исчерпан лимит inotify - такие файлы проверяются через stat
+            unwatchableDirectories.add(directory);
+            return false;
+        }
+    }
+
+    private void processEvents() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path directory = (Path) key.watchable();
+            List<WatchEvent<?>> events = key.pollEvents();
+            synchronized (memo) {
+                invalidations++;
+                for (WatchEvent<?> event : events) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        forgetDirectory(directory);
+                    } else {
+                        forget(directory.resolve((Path) event.context()));
+                    }
+                }
+
+                //ключ отменен (в таблице не осталось файлов каталога) или каталог удален
+                if (!key.reset()) {
+                    watchKeys.remove(directory, key);
+                    forgetDirectory(directory);
+                }
+            }
+        }
+    }
+
+    private void forgetDirectory(Path directory) {
+        List<Path> stale = new ArrayList<>();
+        for (Path path : memo.keySet()) {
+            if (directory.equals(path.getParent())) stale.add(path);
+        }
+        stale.forEach(this::forget);
+    }
+
+    //снимок состояния до расчета хэша; key == null - каталог под внешним наблюдением
+    private static final class Pending {
+        final long invalidations;
+        final WatchKey key;
+
+        Pending(long invalidations, WatchKey key) {
+            this.invalidations = invalidations;
+            this.key = key;
+        }
+    }
+
+    private static final class Memo {
+        final String hash;
+        final long size;
+        final long lastModified;
+
+        Memo(String hash, BasicFileAttributes attrs) {
+            this.hash = hash;
+            this.size = attrs.size();
+            this.lastModified = attrs.lastModifiedTime().toMillis();
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size() && lastModified == attrs.lastModifiedTime().toMillis();
+        }
+    }
+
+    private static Path key(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+    private static String fallbackHash(File file) {
+        return file.getName() + "_" + file.length() + "_" + file.lastModified();
+    }
+
+    /*все содержимое файла -> MurmurHash3 x64 128; параллельно по файлам его вызывает сканер
+      файл больше CONTENT_CHUNK_SIZE хэшируется частями параллельно (в пуле сканера, если вызван из него),
+      итог - хэш от хэшей частей и длины; файлы больше 256 КБ читаются через отображение в память */
+    static String calculateContentHash(Path path, BasicFileAttributes attrs) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= CONTENT_CHUNK_SIZE) {
+                return Murmur3.toHex(Murmur3.hash128(read(channel, 0, size), 0));
+            }
+
+            int chunks = (int) ((size + CONTENT_CHUNK_SIZE - 1) / CONTENT_CHUNK_SIZE);
+            long[][] chunkHashes = new long[chunks][];
+            IOException[] failure = new IOException[1];
+            IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                long start = chunk * CONTENT_CHUNK_SIZE;
+                try {
+                    chunkHashes[chunk] = Murmur3.hash128(read(channel, start, Math.min(CONTENT_CHUNK_SIZE, size - start)), 0);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) throw failure[0];
+
+            ByteBuffer combined = ByteBuffer.allocate(chunks * 16 + 8).order(ByteOrder.LITTLE_ENDIAN);
+            for (long[] chunkHash : chunkHashes) {
+                combined.putLong(chunkHash[0]).putLong(chunkHash[1]);
+            }
+            combined.putLong(size).flip();
+            return Murmur3.toHex(Murmur3.hash128(combined, 0));
+        } catch (IOException e) {
+            return fallbackHash(path.toFile());
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long start, long length) throws IOException {
+        if (length > MAPPED_THRESHOLD) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) break;
+        }
+        return buffer.flip();
+    }
+
+    /*имя, размер, время создания и первые 1024 байта -> MD5 */
+    static String calculateFileHash(File file, BasicFileAttributes attrs) {
+        try {
+            StringBuilder hashInput = new StringBuilder();
+
+            hashInput.append(file.getName());
+            hashInput.append("_").append(attrs.size());
+            hashInput.append("_").append(attrs.creationTime().toMillis());
+
+            try {
+                byte[] buffer = new byte[1024];
+                try (var fis = Files.newInputStream(file.toPath())) {
+                    int bytesRead = fis.read(buffer);
+
+                    if (bytesRead > 0) {
+                        hashInput.append("_").append(
+                                Base64.getEncoder().encodeToString(Arrays.copyOfRange(buffer, 0, bytesRead))
+                        );
+                    }
+                }
+            } catch (IOException e) {
+                //если не удалось прочитать содержимое, используем только метаданные
+                hashInput.append("_").append(attrs.lastModifiedTime().toMillis());
+            }
+
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] hashBytes = md.digest(hashInput.toString().getBytes());
+
+            StringBuilder hexString = new StringBuilder();
+            for (byte b : hashBytes) {
+                String hex = Integer.toHexString(0xff & b);
+                if (hex.length() == 1) {
+                    hexString.append('0');
+                }
+                hexString.append(hex);
+            }
+
+            return hexString.toString();
+
+        } catch (NoSuchAlgorithmException e) {
+            return file.getName() + "_" + attrs.size() + "_" + attrs.lastModifiedTime().toMillis();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.iterator.model;
 
 import com.example.iterator.emotions.Emotion;
+import java.util.Collection;
 import java.util.List;
 
 import java.util.Map;
@@ -12,7 +13,12 @@ public interface ImageAggregate extends Aggregate {
     ImageWithEmotions getImage(int index);
     ImageWithEmotions findByHash(String hash);
     List<ImageWithEmotions> findByName(String fileName);
+    List<ImageWithEmotions> findByNamePrefix(String prefix, int limit);
+    List<ImageWithEmotions> findByNameSubstring(String query, int limit);
     List<ImageWithEmotions> getImagesWithEmotionType(String emotionType);
+    List<ImageWithEmotions> getImagesWithAllEmotionTypes(Collection<String> emotionTypes); //AND
+    List<ImageWithEmotions> getImagesWithAnyEmotionType(Collection<String> emotionTypes);  //OR
+    int countImagesWithEmotionType(String emotionType);
 
     void addEmotion(int index, Emotion emotion);
 
@@ -22,7 +28,11 @@ public interface ImageAggregate extends Aggregate {
     Map<String, Object> getStatistics();
 
     List<ImageWithEmotions> getImagesSortedByEmotionCount();
+    List<ImageWithEmotions> getTopByEmotionCount(int k);
+    int getEmotionRank(String hash);
     List<ImageWithEmotions> getImagesSortedByDate();
+    List<ImageWithEmotions> getImagesSortedBySize();
+    List<ImageWithEmotions> getImagesSortedByName();
 
     int size();
 
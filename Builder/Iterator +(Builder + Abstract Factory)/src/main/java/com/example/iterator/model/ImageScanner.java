@@ -0,0 +1,116 @@
+package com.example.iterator.model;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+
+/*параллельный обход дерева каталогов на fork/join
+  каждый каталог и каждый файл - отдельная задача, порядок результата детерминирован:
+  записи каталога сортируются по имени, содержимое подкаталога встает на его место */
+final class ImageScanner {
+
+    private final Predicate<String> nameFilter;
+    private final int parallelism;
+    private final FingerprintService fingerprints;
+
+    ImageScanner(Predicate<String> nameFilter, int parallelism, FingerprintService fingerprints) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.nameFilter = nameFilter;
+        this.parallelism = parallelism;
+        this.fingerprints = fingerprints;
+    }
+
+    List<ImageWithEmotions> scan(Path root) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.invoke(new DirectoryTask(this, root));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    //задачи живут только внутри пула и не сериализуются, поэтому поля transient
+    private static final class DirectoryTask extends RecursiveTask<List<ImageWithEmotions>> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient ImageScanner scanner;
+        private final transient Path directory;
+
+        DirectoryTask(ImageScanner scanner, Path directory) {
+            this.scanner = scanner;
+            this.directory = directory;
+        }
+
+        @Override
+        protected List<ImageWithEmotions> compute() {
+            List<Path> entries = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path entry : stream) {
+                    if (!entry.getFileName().toString().startsWith(".")) {
+                        entries.add(entry);
+                    }
+                }
+            } catch (IOException e) {
+                return List.of();
+            }
+            entries.sort(null);
+
+            //один stat на запись, атрибуты дальше передаются в Builder
+            List<ForkJoinTask<List<ImageWithEmotions>>> tasks = new ArrayList<>(entries.size());
+            for (Path entry : entries) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    continue;
+                }
+
+                if (attrs.isDirectory()) {
+                    tasks.add(new DirectoryTask(scanner, entry).fork());
+                } else if (scanner.nameFilter.test(entry.getFileName().toString())) {
+                    tasks.add(new FileTask(scanner.fingerprints, entry, attrs).fork());
+                }
+            }
+
+            List<ImageWithEmotions> result = new ArrayList<>();
+            for (ForkJoinTask<List<ImageWithEmotions>> task : tasks) {
+                result.addAll(task.join());
+            }
+            return result;
+        }
+    }
+
+    private static final class FileTask extends RecursiveTask<List<ImageWithEmotions>> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient FingerprintService fingerprints;
+        private final transient Path file;
+        private final transient BasicFileAttributes attrs;
+
+        FileTask(FingerprintService fingerprints, Path file, BasicFileAttributes attrs) {
+            this.fingerprints = fingerprints;
+            this.file = file;
+            this.attrs = attrs;
+        }
+
+        @Override
+        protected List<ImageWithEmotions> compute() {
+            try {
+                return List.of(new ImageWithEmotions.Builder(file.toFile(), attrs, fingerprints).build());
+            } catch (Exception e) {
+                System.err.println("Error loading image: " + file.toAbsolutePath());
+                return List.of();
+            }
+        }
+    }
+}
@@ -5,32 +5,30 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.function.LongSupplier;
 
 /*представляет изображение с прикрепленными эмоциями использует паттерн Builder */
 public class ImageWithEmotions {
 
     private final File imageFile;
     private final String imageHash;  //Уникальный хэш для идентификации файла
-    private final List<Emotion> emotions;
+    private final PersistentVector<Emotion> emotions; //неизменяемый, версии объекта делят общую структуру
     private final Map<String, Object> metadata;
     private final Date creationDate;
 
     private ImageWithEmotions(Builder builder) {
         this.imageFile = builder.imageFile;
         this.imageHash = builder.imageHash;
-        this.emotions = Collections.unmodifiableList(new ArrayList<>(builder.emotions));
-        this.metadata = Collections.unmodifiableMap(new HashMap<>(builder.metadata));
+        this.emotions = builder.emotions;
         this.creationDate = new Date();
 
-        if (!metadata.containsKey("createdAt")) {
-            ((HashMap<String, Object>) metadata).put("createdAt", creationDate);
+        Map<String, Object> metadataCopy = new HashMap<>(builder.metadata);
+        if (!metadataCopy.containsKey("createdAt")) {
+            metadataCopy.put("createdAt", creationDate);
         }
+        this.metadata = Collections.unmodifiableMap(metadataCopy);
     }
 
     @JsonIgnore public File getImageFile() {
@@ -45,55 +43,67 @@ public class ImageWithEmotions {
     @JsonProperty("imageHash") public String getImageHash() {
         return imageHash;
     }
-    @JsonProperty("emotions") public List<Emotion> getEmotions() { return new ArrayList<>(emotions);  } // Возвращаем копию
+    @JsonProperty("emotions") public List<Emotion> getEmotions() { return emotions; } // Неизменяемый, копия не нужна
     @JsonProperty("metadata") public Map<String, Object> getMetadata() { return new HashMap<>(metadata); }  // Возвращаем копию
     @JsonIgnore public Date getCreationDate() { return new Date(creationDate.getTime()); }
     @JsonProperty("fileSize") public long getFileSize() { return imageFile.length(); }
     @JsonProperty("lastModified") public long getLastModified() { return imageFile.lastModified(); }
 
-    public ImageWithEmotions addEmotion(Emotion emotion) {
-        //создаем нового билдера на основе текущего объекта
-        Builder builder = new Builder(this.imageFile)
-                .withCustomHash(this.imageHash)
-                .withEmotions(this.emotions)
-                .withMetadata(this.metadata);
+    //значения, прочитанные при создании объекта; в отличие от геттеров выше не обращаются к диску
+    @JsonIgnore public long getScannedFileSize() { return scannedLong("fileSize", imageFile::length); }
+    @JsonIgnore public long getScannedLastModified() { return scannedLong("lastModified", imageFile::lastModified); }
+
+    private long scannedLong(String key, LongSupplier fallback) {
+        Object value = metadata.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : fallback.getAsLong();
+    }
+
+    /*производный объект без обращения к диску: файл и хэш уже проверены при создании исходного,
+      неизмененные метаданные (и эмоции, если переданы те же) используются совместно */
+    private ImageWithEmotions(ImageWithEmotions source, PersistentVector<Emotion> emotions, Map<String, Object> metadata) {
+        this.imageFile = source.imageFile;
+        this.imageHash = source.imageHash;
+        this.emotions = emotions;
+        this.metadata = metadata;
+        this.creationDate = new Date();
+    }
 
-        //добавляем новую эмоцию
-        builder.withEmotion(emotion);
+    public ImageWithEmotions addEmotion(Emotion emotion) {
+        if (emotion == null) return this;
 
-        //создаем новый объект
-        return builder.build();
+        return new ImageWithEmotions(this, emotions.append(emotion), metadata);
     }
 
     public ImageWithEmotions removeEmotion(String emotionId) {
-        Builder builder = new Builder(this.imageFile)
-                .withCustomHash(this.imageHash)
-                .withMetadata(this.metadata);
+        int index = 0;
+        for (Emotion emotion : emotions) {
+            if (emotion.getId().equals(emotionId)) break;
+            index++;
+        }
+        if (index == emotions.size()) return this;
 
-        //копируем все эмоции, кроме удаляемой
-        for (Emotion emotion : this.emotions) {
+        //чаще всего удаляют только что добавленную эмоцию
+        if (index == emotions.size() - 1) {
+            return new ImageWithEmotions(this, emotions.pop(), metadata);
+        }
+
+        //удаляются все эмоции с этим id, как и раньше
+        List<Emotion> updated = new ArrayList<>(emotions.size() - 1);
+        updated.addAll(emotions.subList(0, index));
+        for (Emotion emotion : emotions.subList(index + 1, emotions.size())) {
             if (!emotion.getId().equals(emotionId)) {
-                builder.withEmotion(emotion);
+                updated.add(emotion);
             }
         }
-
-        return builder.build();
+        return new ImageWithEmotions(this, PersistentVector.of(updated), metadata);
     }
 
     public ImageWithEmotions updateMetadata(String key, Object value) {
-        Builder builder = new Builder(this.imageFile)
-                .withCustomHash(this.imageHash)
-                .withEmotions(this.emotions);
+        if (key == null || value == null) return this;
 
-        //копируем все существующие метаданные
-        for (Map.Entry<String, Object> entry : this.metadata.entrySet()) {
-            builder.withMetadata(entry.getKey(), entry.getValue());
-        }
-
-        //добавляем/обновляем новое значение
-        builder.withMetadata(key, value);
-
-        return builder.build();
+        Map<String, Object> updated = new HashMap<>(metadata);
+        updated.put(key, value);
+        return new ImageWithEmotions(this, emotions, Collections.unmodifiableMap(updated));
     }
 
     public int getEmotionCountByType(String type) {
@@ -140,37 +150,74 @@ public class ImageWithEmotions {
     public static class Builder {
         private final File imageFile;
         private String imageHash;
-        private final List<Emotion> emotions = new ArrayList<>();
+        private PersistentVector<Emotion> emotions = PersistentVector.empty();
         private final Map<String, Object> metadata = new HashMap<>();
+        private BasicFileAttributes attributes; //уже прочитанные атрибуты файла, если есть
+        private boolean derived = false; //построен из существующего объекта - файл уже проверен
 
         public Builder(File imageFile) {
             if (imageFile == null) {
                 throw new IllegalArgumentException("Image file cannot be null");
             }
             this.imageFile = imageFile;
-            this.imageHash = calculateFileHash(imageFile);
+            this.imageHash = FingerprintService.getInstance().fingerprint(imageFile);
+            this.metadata.put("originalPath", imageFile.getAbsolutePath());
+        }
+
+        /*Конструктор для сканера: атрибуты уже прочитаны, повторный stat не нужен;
+          хэш считает сервис выбранного для альбома способа */
+        Builder(File imageFile, BasicFileAttributes attributes, FingerprintService fingerprints) {
+            if (imageFile == null) {
+                throw new IllegalArgumentException("Image file cannot be null");
+            }
+            this.imageFile = imageFile;
+            this.attributes = attributes;
+            this.imageHash = fingerprints.fingerprint(imageFile, attributes);
             this.metadata.put("originalPath", imageFile.getAbsolutePath());
         }
 
         /*Конструктор для создания Builder из существующего ImageWithEmotions */
         public Builder(ImageWithEmotions source) {
-            this.imageFile = source.imageFile;
+            this(source, source.imageFile);
+        }
+
+        /*тот же файл под другим путем (переименование): хэш и прочитанные при сканировании атрибуты переносятся */
+        Builder(ImageWithEmotions source, File imageFile) {
+            if (imageFile == null) {
+                throw new IllegalArgumentException("Image file cannot be null");
+            }
+            this.derived = true;
+            this.imageFile = imageFile;
             this.imageHash = source.imageHash;
-            this.emotions.addAll(source.emotions);
+            this.emotions = source.emotions;
             this.metadata.putAll(source.metadata);
         }
 
         public Builder withEmotion(Emotion emotion) {
             if (emotion != null) {
-                this.emotions.add(emotion);
+                this.emotions = this.emotions.append(emotion);
             }
             return this;
         }
 
         public Builder withEmotions(Collection<Emotion> emotions) {
             if (emotions != null) {
-                this.emotions.addAll(emotions);
+                this.emotions = this.emotions.isEmpty()
+                        ? PersistentVector.of(emotions)
+                        : appendAll(this.emotions, emotions);
+            }
+            return this;
+        }
+
+        private static PersistentVector<Emotion> appendAll(PersistentVector<Emotion> target, Collection<Emotion> items) {
+            for (Emotion emotion : items) {
+                target = target.append(emotion);
             }
+            return target;
+        }
+
+        public Builder withoutEmotions() {
+            this.emotions = PersistentVector.empty();
             return this;
         }
 
@@ -196,8 +243,13 @@ public class ImageWithEmotions {
         }
 
         public ImageWithEmotions build() {
+            //размер, дата и расширение уже в метаданных исходного объекта
+            if (derived) {
+                return new ImageWithEmotions(this);
+            }
+
             // Валидация
-            if (!imageFile.exists()) {
+            if (attributes == null && !imageFile.exists()) {
                 throw new IllegalStateException("Image file does not exist: " + imageFile.getPath());
             }
 
@@ -207,11 +259,13 @@ public class ImageWithEmotions {
 
             // Автоматически добавляем информацию о файле
             if (!metadata.containsKey("fileSize")) {
-                metadata.put("fileSize", imageFile.length());
+                metadata.put("fileSize", attributes != null ? attributes.size() : imageFile.length());
             }
 
             if (!metadata.containsKey("lastModified")) {
-                metadata.put("lastModified", imageFile.lastModified());
+                metadata.put("lastModified", attributes != null
+                        ? attributes.lastModifiedTime().toMillis()
+                        : imageFile.lastModified());
             }
 
             if (!metadata.containsKey("fileExtension")) {
@@ -224,55 +278,6 @@ public class ImageWithEmotions {
 
             return new ImageWithEmotions(this);
         }
-
-
-        private String calculateFileHash(File file) {
-            try {
-                StringBuilder hashInput = new StringBuilder();
-
-                hashInput.append(file.getName());
-                hashInput.append("_").append(file.length());
-                BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
-                hashInput.append("_").append(attrs.creationTime().toMillis());
-
-                try {
-                    byte[] buffer = new byte[1024];
-                    try (var fis = Files.newInputStream(file.toPath())) {
-                        int bytesRead = fis.read(buffer);
-
-                        if (bytesRead > 0) {
-                            hashInput.append("_").append(
-                                    Base64.getEncoder().encodeToString(Arrays.copyOfRange(buffer, 0, bytesRead))
-                            );
-                        }
-
-                        /*if (bytesRead > 0) {
-                            hashInput.append("_").append(Base64.getEncoder().encodeToString(buffer,0,bytesRead)); //!//
-                        }*/
-                    }
-                } catch (IOException e) {
-                    //если не удалось прочитать содержимое, используем только метаданные
-                    hashInput.append("_").append(file.lastModified());
-                }
-
-                MessageDigest md = MessageDigest.getInstance("MD5");
-                byte[] hashBytes = md.digest(hashInput.toString().getBytes());
-
-                StringBuilder hexString = new StringBuilder();
-                for (byte b : hashBytes) {
-                    String hex = Integer.toHexString(0xff & b);
-                    if (hex.length() == 1) {
-                        hexString.append('0');
-                    }
-                    hexString.append(hex);
-                }
-
-                return hexString.toString();
-
-            } catch (NoSuchAlgorithmException | IOException e) {
-                return file.getName() + "_" + file.length() + "_" + file.lastModified();
-            }
-        }
     }
 
     public static ImageWithEmotions fromFile(File file) {
@@ -0,0 +1,86 @@
+package com.example.iterator.model;
+
+import java.util.function.IntConsumer;
+
+/*индекс 64-битных хэшей для поиска по расстоянию Хэмминга (multi-index hashing)
+  хэш делится на 4 части по 16 бит; если хэши отличаются не больше чем на k бит, то хотя бы в одной части
+  отличие не больше k / 4 (принцип Дирихле) - поэтому просматриваются только корзины частей в этом радиусе,
+  а не весь набор. Корзины хранятся подряд (сортировка подсчетом): starts[часть][значение] - начало корзины */
+final class MultiIndexHash {
+
+    private static final int CHUNKS = 4;
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_VALUES = 1 << CHUNK_BITS;
+
+    private final long[] hashes;
+    private final int[] ids;
+    private final int[][] starts = new int[CHUNKS][];
+    private final int[][] members = new int[CHUNKS][]; //номера в hashes, сгруппированные по значению части
+
+    /*ids[i] - то, что сообщается при нахождении hashes[i] */
+    MultiIndexHash(long[] hashes, int[] ids) {
+        this.hashes = hashes;
+        this.ids = ids;
+        for (int chunk = 0; chunk < CHUNKS; chunk++) {
+            int[] start = new int[CHUNK_VALUES + 1];
+            for (long hash : hashes) {
+                start[chunk(hash, chunk) + 1]++;
+            }
+            for (int value = 0; value < CHUNK_VALUES; value++) {
+                start[value + 1] += start[value];
+            }
+            int[] member = new int[hashes.length];
+            int[] next = start.clone();
+            for (int i = 0; i < hashes.length; i++) {
+                member[next[chunk(hashes[i], chunk)]++] = i;
+            }
+            starts[chunk] = start;
+            members[chunk] = member;
+        }
+    }
+
+    int size() {
+        return hashes.length;
+    }
+
+    /*передает в found id всех хэшей на расстоянии не больше maxDistance (каждый один раз);
+      возвращает число проверенных кандидатов */
+    int search(long hash, int maxDistance, IntConsumer found) {
+        int radius = Math.min(CHUNK_BITS, maxDistance / CHUNKS);
+        int[] checked = new int[1];
+        for (int chunk = 0; chunk < CHUNKS; chunk++) {
+            probe(hash, maxDistance, radius, chunk, chunk(hash, chunk), 0, radius, checked, found);
+        }
+        return checked[0];
+    }
+
+    //все значения части, отличающиеся от value не больше чем на flipsLeft бит начиная с firstBit
+    private void probe(long hash, int maxDistance, int radius, int chunk, int value, int firstBit, int flipsLeft,
+                       int[] checked, IntConsumer found) {
+        int[] member = members[chunk];
+        int end = starts[chunk][value + 1];
+        for (int m = starts[chunk][value]; m < end; m++) {
+            int i = member[m];
+            checked[0]++;
+            if (PerceptualHash.distance(hash, hashes[i]) <= maxDistance && firstMatchingChunk(hash, hashes[i], radius) == chunk) {
+                found.accept(ids[i]);
+            }
+        }
+        if (flipsLeft == 0) return;
+        for (int bit = firstBit; bit < CHUNK_BITS; bit++) {
+            probe(hash, maxDistance, radius, chunk, value ^ (1 << bit), bit + 1, flipsLeft - 1, checked, found);
+        }
+    }
+
+    //хэш находится через каждую подходящую часть - сообщаем только из первой
+    private static int firstMatchingChunk(long a, long b, int radius) {
+        for (int chunk = 0; chunk < CHUNKS; chunk++) {
+            if (Integer.bitCount(chunk(a, chunk) ^ chunk(b, chunk)) <= radius) return chunk;
+        }
+        return -1;
+    }
+
+    private static int chunk(long hash, int chunk) {
+        return (int) (hash >>> (chunk * CHUNK_BITS)) & (CHUNK_VALUES - 1);
+    }
+}
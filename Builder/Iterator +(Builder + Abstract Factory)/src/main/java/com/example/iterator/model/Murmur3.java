@@ -0,0 +1,94 @@
+package com.example.iterator.model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*MurmurHash3 x64 128 бит (Austin Appleby, общественное достояние) - быстрый некриптографический хэш
+  читает буфер от position до limit блоками по 16 байт, сам буфер не меняет */
+final class Murmur3 {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private Murmur3() {
+    }
+
+    /*{h1, h2} */
+    static long[] hash128(ByteBuffer data, long seed) {
+        ByteBuffer buffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int start = buffer.position();
+        int length = buffer.remaining();
+        int blocks = length >>> 4;
+
+        long h1 = seed;
+        long h2 = seed;
+        for (int i = 0; i < blocks; i++) {
+            int offset = start + (i << 4);
+            long k1 = buffer.getLong(offset);
+            long k2 = buffer.getLong(offset + 8);
+
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        //хвост короче блока: байты 8..14 - в k2, 0..7 - в k1, little-endian
+        int tail = start + (blocks << 4);
+        int rest = length & 15;
+        if (rest > 8) {
+            long k2 = 0;
+            for (int i = rest - 1; i >= 8; i--) {
+                k2 = (k2 << 8) | (buffer.get(tail + i) & 0xff);
+            }
+            h2 ^= mixK2(k2);
+        }
+        if (rest > 0) {
+            long k1 = 0;
+            for (int i = Math.min(rest, 8) - 1; i >= 0; i--) {
+                k1 = (k1 << 8) | (buffer.get(tail + i) & 0xff);
+            }
+            h1 ^= mixK1(k1);
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new long[]{h1, h2};
+    }
+
+    static String toHex(long[] hash) {
+        return String.format("%016x%016x", hash[0], hash[1]);
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.iterator.model;
+
+import java.util.*;
+
+/*индекс имен файлов без учета регистра для поиска по мере ввода
+  - TreeMap приведенных к нижнему регистру имен: точное совпадение и префикс
+  - триграммы имени -> номера имен: подстрока от 3 символов ищется пересечением списков и проверкой кандидатов
+  номера имен только растут, поэтому списки триграмм отсортированы и только дописываются;
+  имя, у которого не осталось файлов, остается в списках и отсеивается при проверке
+  не потокобезопасен - им владеет агрегат */
+final class NameIndex {
+
+    private final NavigableMap<String, Integer> idByName = new TreeMap<>();
+    private final List<String> names = new ArrayList<>();       //номер -> имя
+    private final List<int[]> positions = new ArrayList<>();    //номер -> позиции изображений в альбоме
+    private final Map<Long, IntList> postings = new HashMap<>(); //триграмма -> номера имен
+
+    void add(int position, String fileName) {
+        String name = fold(fileName);
+        Integer id = idByName.get(name);
+        if (id == null) {
+            id = names.size();
+            idByName.put(name, id);
+            names.add(name);
+            positions.add(new int[0]);
+            for (int i = 0; i + 3 <= name.length(); i++) {
+                IntList list = postings.get(trigram(name, i));
+                if (list == null) {
+                    list = new IntList();
+                    postings.put(trigram(name, i), list);
+                }
+                //повтор триграммы в том же имени - номер уже последний в списке
+                if (list.size == 0 || list.data[list.size - 1] != id) {
+                    list.add(id);
+                }
+            }
+        }
+
+        int[] current = positions.get(id);
+        int[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = position;
+        positions.set(id, updated);
+    }
+
+    void remove(int position, String fileName) {
+        Integer id = idByName.get(fold(fileName));
+        if (id == null) return;
+
+        int[] current = positions.get(id);
+        int[] updated = new int[current.length];
+        int count = 0;
+        for (int p : current) {
+            if (p != position) {
+                updated[count++] = p;
+            }
+        }
+        positions.set(id, Arrays.copyOf(updated, count));
+    }
+
+    /*из альбома удалены позиции removed (по возрастанию): остальные сдвигаются, триграммы не пересчитываются */
+    void positionsRemoved(int[] removed) {
+        for (int id = 0; id < positions.size(); id++) {
+            int[] current = positions.get(id);
+            int[] updated = new int[current.length];
+            int count = 0;
+            for (int p : current) {
+                int before = Arrays.binarySearch(removed, p);
+                if (before < 0) {
+                    updated[count++] = p - (-before - 1);
+                }
+            }
+            positions.set(id, count == current.length ? updated : Arrays.copyOf(updated, count));
+        }
+    }
+
+    /*позиции изображений с таким именем без учета регистра */
+    int[] exact(String fileName) {
+        Integer id = idByName.get(fold(fileName));
+        return id != null ? positions.get(id).clone() : new int[0];
+    }
+
+    /*позиции изображений, имя которых начинается с prefix, по алфавиту; не больше limit */
+    int[] prefix(String prefix, int limit) {
+        String from = fold(prefix);
+        IntList result = new IntList();
+        for (Map.Entry<String, Integer> entry : idByName.tailMap(from, true).entrySet()) {
+            if (!entry.getKey().startsWith(from) || result.size >= limit) break;
+            result.addAll(positions.get(entry.getValue()), limit);
+        }
+        return result.toArray();
+    }
+
+    /*позиции изображений, имя которых содержит query; не больше limit */
+    int[] substring(String query, int limit) {
+        String needle = fold(query);
+        IntList result = new IntList();
+
+        //короткий запрос - просмотр имен по порядку, обычно быстро набирается limit
+        if (needle.length() < 3) {
+            for (int id = 0; id < names.size() && result.size < limit; id++) {
+                if (names.get(id).contains(needle)) {
+                    result.addAll(positions.get(id), limit);
+                }
+            }
+            return result.toArray();
+        }
+
+        List<IntList> lists = new ArrayList<>();
+        for (int i = 0; i + 3 <= needle.length(); i++) {
+            IntList list = postings.get(trigram(needle, i));
+            if (list == null) return new int[0];
+            if (!lists.contains(list)) {
+                lists.add(list);
+            }
+        }
+        lists.sort(Comparator.comparingInt(list -> list.size));
+
+        //идем по самому короткому списку, остальные проверяем бинарным поиском
+        IntList shortest = lists.get(0);
+        for (int i = 0; i < shortest.size && result.size < limit; i++) {
+            int id = shortest.data[i];
+            boolean inAll = true;
+            for (int j = 1; j < lists.size() && inAll; j++) {
+                IntList other = lists.get(j);
+                inAll = Arrays.binarySearch(other.data, 0, other.size, id) >= 0;
+            }
+            //триграммы могут совпасть и в другом порядке - проверяем само вхождение
+            if (inAll && names.get(id).contains(needle)) {
+                result.addAll(positions.get(id), limit);
+            }
+        }
+        return result.toArray();
+    }
+
+    static String fold(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private static long trigram(String name, int start) {
+        return ((long) name.charAt(start) << 32) | ((long) name.charAt(start + 1) << 16) | name.charAt(start + 2);
+    }
+
+    private static final class IntList {
+        int[] data = new int[4];
+        int size = 0;
+
+        void add(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+
+        void addAll(int[] values, int limit) {
+            for (int value : values) {
+                if (size >= limit) return;
+                add(value);
+            }
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.iterator.model;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/*перцептивный хэш dHash: яркость изображения, уменьшенного до 9x8, и 64 бита "левая клетка темнее правой"
+  не меняется от пересжатия, масштабирования и небольшой цветокоррекции, поэтому у серии снимков
+  и повторных экспортов одного кадра хэши отличаются на несколько бит (расстояние Хэмминга) */
+final class PerceptualHash {
+
+    private static final int COLUMNS = 9;
+    private static final int ROWS = 8;
+    //столько пикселей по меньшей стороне достаточно для сетки 9x8, остальное пропускается при чтении
+    private static final int SAMPLE_SIZE = 64;
+
+    private PerceptualHash() {
+    }
+
+    static long of(File file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) throw new IOException("Cannot open " + file);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) throw new IOException("Unsupported image format: " + file);
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int step = Math.max(1, Math.min(reader.getWidth(0), reader.getHeight(0)) / SAMPLE_SIZE);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return of(reader.read(0, param));
+            } catch (RuntimeException e) {
+                //битые и экзотические файлы (например CMYK JPEG) читатели отвергают по-разному
+                throw new IOException("Cannot decode " + file + ": " + e, e);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    static long of(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+
+        //средняя яркость каждой клетки сетки
+        long[] sums = new long[COLUMNS * ROWS];
+        int[] counts = new int[COLUMNS * ROWS];
+        for (int y = 0; y < height; y++) {
+            int row = y * ROWS / height;
+            for (int x = 0; x < width; x++) {
+                int rgb = pixels[y * width + x];
+                int luma = (299 * ((rgb >> 16) & 0xff) + 587 * ((rgb >> 8) & 0xff) + 114 * (rgb & 0xff)) / 1000;
+                int cell = row * COLUMNS + x * COLUMNS / width;
+                sums[cell] += luma;
+                counts[cell]++;
+            }
+        }
+
+        long hash = 0;
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < COLUMNS - 1; column++) {
+                int left = row * COLUMNS + column;
+                //сравнение без деления: sums[left]/counts[left] < sums[right]/counts[right]
+                boolean brighter = sums[left] * Math.max(1, counts[left + 1])
+                        < sums[left + 1] * Math.max(1, counts[left]);
+                hash = (hash << 1) | (brighter ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.iterator.model;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*постоянный индекс перцептивных хэшей рядом с индексом отпечатков: отпечаток файла -> dHash
+  записи дописываются в конец, последняя побеждает; у каждой - день последнего использования
+  отпечаток измененного или удаленного файла больше не спрашивают, поэтому записи, не использованные
+  UNUSED_DAYS дней, при сжатии отбрасываются - как в FingerprintCache, файл переписывается целиком */
+final class PerceptualHashCache {
+
+    private static final int MAGIC = 0x50485332; //"PHS2"
+    private static final int UNUSED_DAYS = 90;
+    private static final int COMPACT_THRESHOLD = 256;
+
+    private static class Holder {
+        private static final PerceptualHashCache INSTANCE = createDefault();
+    }
+
+    private final Path indexFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<>();
+    private int recordsOnDisk = 0; //под монитором this
+    private boolean rewrite = false; //чужой формат или устаревшие записи - переписать при следующем сбросе
+
+    PerceptualHashCache(Path indexFile) {
+        this.indexFile = indexFile;
+        load();
+    }
+
+    static PerceptualHashCache getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private static PerceptualHashCache createDefault() {
+        Path dir = Path.of(System.getProperty("user.home"), ".cache", "photo_album");
+        PerceptualHashCache cache = new PerceptualHashCache(dir.resolve("perceptual.idx"));
+        Runtime.getRuntime().addShutdownHook(new Thread(cache::flush, "perceptual-cache-flush"));
+        return cache;
+    }
+
+    Long lookup(String fingerprint) {
+        Entry entry = entries.get(fingerprint);
+        if (entry == null) return null;
+
+        //день использования пишется не чаще раза в день на запись
+        int today = today();
+        if (entry.lastUsedDay != today) {
+            entry.lastUsedDay = today;
+            pending.add(fingerprint);
+        }
+        return entry.hash;
+    }
+
+    void store(String fingerprint, long hash) {
+        if (entries.put(fingerprint, new Entry(hash, today())) == null) {
+            pending.add(fingerprint);
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    synchronized void flush() {
+        List<String> batch = new ArrayList<>();
+        String fingerprint;
+        while ((fingerprint = pending.poll()) != null) {
+            batch.add(fingerprint);
+        }
+        if (batch.isEmpty() && !rewrite) return;
+
+        try {
+            Files.createDirectories(indexFile.getParent());
+            if (rewrite || recordsOnDisk + batch.size() > 2 * Math.max(entries.size(), COMPACT_THRESHOLD)) {
+                compact();
+                return;
+            }
+
+            boolean fresh = !Files.exists(indexFile) || Files.size(indexFile) == 0;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(indexFile.toFile(), true)))) {
+                if (fresh) {
+                    out.writeInt(MAGIC);
+                }
+                for (String key : batch) {
+                    Entry entry = entries.get(key);
+                    if (entry != null) {
+                        entry.write(key, out);
+                        recordsOnDisk++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error saving perceptual hash cache: " + e.getMessage());
+        }
+    }
+
+    private void compact() throws IOException {
+        int oldest = today() - UNUSED_DAYS;
+        entries.values().removeIf(entry -> entry.lastUsedDay < oldest);
+
+        Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        int written = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                entry.getValue().write(entry.getKey(), out);
+                written++;
+            }
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        recordsOnDisk = written;
+        rewrite = false;
+    }
+
+    /*индекс читается целиком; оборванная при сбое последняя запись отрезается,
+      чтобы новые записи не дописывались после нее */
+    private void load() {
+        if (!Files.exists(indexFile)) return;
+
+        try {
+            byte[] data = Files.readAllBytes(indexFile);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            long good = 0;
+            try {
+                if (in.readInt() != MAGIC) {
+                    System.err.println("Unknown perceptual hash cache format, will be rewritten: " + indexFile);
+                    rewrite = true;
+                    return;
+                }
+                good = data.length - in.available();
+                while (in.available() > 0) {
+                    String fingerprint = in.readUTF();
+                    entries.put(fingerprint, new Entry(in.readLong(), in.readInt()));
+                    good = data.length - in.available();
+                    recordsOnDisk++;
+                }
+            } catch (EOFException e) {
+                //оборванная последняя запись
+            }
+            if (good < data.length) {
+                try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.WRITE)) {
+                    channel.truncate(good);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading perceptual hash cache: " + e.getMessage());
+            rewrite = true;
+        }
+
+        int oldest = today() - UNUSED_DAYS;
+        if (entries.values().stream().anyMatch(entry -> entry.lastUsedDay < oldest)) {
+            rewrite = true;
+        }
+    }
+
+    private static int today() {
+        return (int) (System.currentTimeMillis() / 86_400_000L);
+    }
+
+    private static final class Entry {
+        final long hash;
+        volatile int lastUsedDay;
+
+        Entry(long hash, int lastUsedDay) {
+            this.hash = hash;
+            this.lastUsedDay = lastUsedDay;
+        }
+
+        void write(String fingerprint, DataOutputStream out) throws IOException {
+            out.writeUTF(fingerprint);
+            out.writeLong(hash);
+            out.writeInt(lastUsedDay);
+        }
+    }
+}
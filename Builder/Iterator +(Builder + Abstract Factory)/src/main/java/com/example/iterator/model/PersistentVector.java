@@ -0,0 +1,213 @@
+package com.example.iterator.model;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/*неизменяемый вектор с общей структурой (32-арное дерево + хвост, как в Clojure)
+  append копирует только хвост или путь от корня - O(log32 n), старые версии остаются целыми
+  сам является неизменяемым List, поэтому его можно отдавать наружу без копирования */
+final class PersistentVector<E> extends AbstractList<E> implements RandomAccess {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final PersistentVector<?> EMPTY =
+            new PersistentVector<>(0, BITS, new Object[WIDTH], new Object[0]);
+
+    private final int size;
+    private final int shift;
+    private final Object[] root;
+    private final Object[] tail; //последние 1..32 элемента (пустой только у пустого вектора)
+
+    private PersistentVector(int size, int shift, Object[] root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <E> PersistentVector<E> empty() {
+        return (PersistentVector<E>) EMPTY;
+    }
+
+    /*строит вектор сразу целыми листами, без промежуточных версий */
+    @SuppressWarnings("unchecked")
+    static <E> PersistentVector<E> of(Collection<? extends E> items) {
+        if (items instanceof PersistentVector) return (PersistentVector<E>) items;
+
+        Object[] array = items.toArray();
+        int count = array.length;
+        if (count == 0) return empty();
+
+        int tailOffset = ((count - 1) >>> BITS) << BITS;
+        int leaves = tailOffset >>> BITS;
+        int shift = BITS;
+        while (leaves > (1 << shift)) {
+            shift += BITS;
+        }
+
+        //узлы новые, поэтому их можно заполнять на месте
+        Object[] root = new Object[WIDTH];
+        for (int offset = 0; offset < tailOffset; offset += WIDTH) {
+            Object[] node = root;
+            for (int level = shift; level > BITS; level -= BITS) {
+                int index = (offset >>> level) & MASK;
+                if (node[index] == null) {
+                    node[index] = new Object[WIDTH];
+                }
+                node = (Object[]) node[index];
+            }
+            Object[] leaf = new Object[WIDTH];
+            System.arraycopy(array, offset, leaf, 0, WIDTH);
+            node[(offset >>> BITS) & MASK] = leaf;
+        }
+
+        Object[] tail = new Object[count - tailOffset];
+        System.arraycopy(array, tailOffset, tail, 0, tail.length);
+        return new PersistentVector<>(count, shift, root, tail);
+    }
+
+    PersistentVector<E> append(E item) {
+        //место в хвосте есть - копируем только хвост
+        if (size - tailOffset() < WIDTH) {
+            Object[] newTail = new Object[tail.length + 1];
+            System.arraycopy(tail, 0, newTail, 0, tail.length);
+            newTail[tail.length] = item;
+            return new PersistentVector<>(size + 1, shift, root, newTail);
+        }
+
+        //хвост полон - уходит в дерево, при переполнении корня дерево растет на уровень
+        Object[] newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) {
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = newPath(shift, tail);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root, tail);
+        }
+        return new PersistentVector<>(size + 1, newShift, newRoot, new Object[]{item});
+    }
+
+    /*без последнего элемента - тоже O(log32 n) */
+    PersistentVector<E> pop() {
+        if (size == 0) throw new IllegalStateException("Vector is empty");
+        if (size == 1) return empty();
+
+        if (size - tailOffset() > 1) {
+            Object[] newTail = new Object[tail.length - 1];
+            System.arraycopy(tail, 0, newTail, 0, newTail.length);
+            return new PersistentVector<>(size - 1, shift, root, newTail);
+        }
+
+        //хвост опустел - хвостом становится последний лист дерева
+        Object[] newTail = leafFor(size - 2);
+        Object[] newRoot = popTail(shift, root);
+        int newShift = shift;
+        if (newRoot == null) {
+            newRoot = new Object[WIDTH];
+        }
+        if (shift > BITS && newRoot[1] == null) {
+            newRoot = (Object[]) newRoot[0];
+            newShift -= BITS;
+        }
+        return new PersistentVector<>(size - 1, newShift, newRoot, newTail);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return (E) leafFor(index)[index & MASK];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    //обход по листам, а не спуск от корня для каждого элемента
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<>() {
+            private int index = 0;
+            private Object[] leaf = size > 0 ? leafFor(0) : null;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public E next() {
+                if (index >= size) throw new NoSuchElementException();
+                if (index > 0 && (index & MASK) == 0) {
+                    leaf = leafFor(index);
+                }
+                return (E) leaf[index++ & MASK];
+            }
+        };
+    }
+
+    private int tailOffset() {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    private Object[] leafFor(int index) {
+        if (index >= tailOffset()) return tail;
+
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    private Object[] pushTail(int level, Object[] parent, Object[] tailNode) {
+        int index = ((size - 1) >>> level) & MASK;
+        Object[] result = parent.clone();
+        if (level == BITS) {
+            result[index] = tailNode;
+        } else {
+            Object[] child = (Object[]) parent[index];
+            result[index] = child != null
+                    ? pushTail(level - BITS, child, tailNode)
+                    : newPath(level - BITS, tailNode);
+        }
+        return result;
+    }
+
+    private Object[] popTail(int level, Object[] node) {
+        int index = ((size - 2) >>> level) & MASK;
+        if (level > BITS) {
+            Object[] child = popTail(level - BITS, (Object[]) node[index]);
+            if (child == null && index == 0) return null;
+
+            Object[] result = node.clone();
+            result[index] = child;
+            return result;
+        }
+        if (index == 0) return null;
+
+        Object[] result = node.clone();
+        result[index] = null;
+        return result;
+    }
+
+    private static Object[] newPath(int level, Object[] node) {
+        if (level == 0) return node;
+
+        Object[] path = new Object[WIDTH];
+        path[0] = newPath(level - BITS, node);
+        return path;
+    }
+}
@@ -0,0 +1,279 @@
+package com.example.iterator.model;
+
+import java.util.*;
+
+/*поддерживаемые сортировки альбома: перестановки позиций images по дате, размеру, имени и числу эмоций
+  ключи берутся один раз при сканировании в примитивные массивы, сортировка - Arrays.parallelSort по упакованным long
+  при изменении изображения перестановки правятся точечно, полная пересортировка не нужна
+  не потокобезопасен - им владеет агрегат */
+final class SortedViews {
+
+    private final int size;
+
+    //ключи по позиции
+    private final long[] dates;
+    private final long[] sizes;
+    private final String[] names;
+    private final int[] emotionCounts;
+
+    private final int[] byDate;  //новые первыми
+    private final int[] bySize;  //большие первыми
+    private final int[] byName;  //по алфавиту без учета регистра
+
+    /*по числу эмоций (больше - раньше): блок изображений с c эмоциями занимает
+      [greaterThan[c], greaterThan[c - 1]), где greaterThan[c] - число изображений, у которых эмоций больше c
+      изменение счетчика на 1 - один обмен на границе блока, O(1) */
+    private final int[] byEmotions;
+    private final int[] emotionRank; //позиция -> место в byEmotions
+    private int[] greaterThan;
+
+    SortedViews(List<ImageWithEmotions> images) {
+        size = images.size();
+        dates = new long[size];
+        sizes = new long[size];
+        names = new String[size];
+        emotionCounts = new int[size];
+        for (int i = 0; i < size; i++) {
+            ImageWithEmotions image = images.get(i);
+            dates[i] = image.getScannedLastModified();
+            sizes[i] = image.getScannedFileSize();
+            names[i] = image.getFileName();
+            emotionCounts[i] = image.getEmotions().size();
+        }
+
+        byDate = sortDescending(dates);
+        bySize = sortDescending(sizes);
+        byName = sortByName();
+
+        byEmotions = new int[size];
+        emotionRank = new int[size];
+        greaterThan = new int[1];
+        buildEmotionOrder();
+    }
+
+    List<ImageWithEmotions> byDate(List<ImageWithEmotions> images) {
+        return select(byDate, images);
+    }
+
+    List<ImageWithEmotions> bySize(List<ImageWithEmotions> images) {
+        return select(bySize, images);
+    }
+
+    List<ImageWithEmotions> byName(List<ImageWithEmotions> images) {
+        return select(byName, images);
+    }
+
+    List<ImageWithEmotions> byEmotionCount(List<ImageWithEmotions> images) {
+        return select(byEmotions, images);
+    }
+
+    /*k изображений с наибольшим числом эмоций - начало перестановки, O(k) */
+    List<ImageWithEmotions> topByEmotionCount(int k, List<ImageWithEmotions> images) {
+        int limit = Math.min(Math.max(k, 0), size);
+        List<ImageWithEmotions> result = new ArrayList<>(limit);
+        for (int i = 0; i < limit; i++) {
+            result.add(images.get(byEmotions[i]));
+        }
+        return result;
+    }
+
+    /*место в рейтинге с 1: изображения с равным числом эмоций делят место, O(1) */
+    int emotionRankOf(int position) {
+        int count = emotionCounts[position];
+        return (count < greaterThan.length ? greaterThan[count] : 0) + 1;
+    }
+
+    /*на позиции position старое изображение заменено новым */
+    void replaced(int position, ImageWithEmotions oldImage, ImageWithEmotions newImage) {
+        int count = newImage.getEmotions().size();
+        while (emotionCounts[position] < count) {
+            incrementEmotions(position);
+        }
+        while (emotionCounts[position] > count) {
+            decrementEmotions(position);
+        }
+
+        //ключи файла меняются при переименовании/перемещении и при перезаписи файла
+        if (oldImage.getImageFile().equals(newImage.getImageFile())
+                && oldImage.getScannedLastModified() == newImage.getScannedLastModified()
+                && oldImage.getScannedFileSize() == newImage.getScannedFileSize()) return;
+
+        long date = newImage.getScannedLastModified();
+        if (date != dates[position]) {
+            dates[position] = date;
+            reposition(byDate, position, this::compareDates);
+        }
+        long fileSize = newImage.getScannedFileSize();
+        if (fileSize != sizes[position]) {
+            sizes[position] = fileSize;
+            reposition(bySize, position, this::compareSizes);
+        }
+        String name = newImage.getFileName();
+        if (!name.equals(names[position])) {
+            names[position] = name;
+            reposition(byName, position, this::compareNames);
+        }
+    }
+
+    private void incrementEmotions(int position) {
+        int count = emotionCounts[position];
+        if (count + 1 >= greaterThan.length) {
+            greaterThan = Arrays.copyOf(greaterThan, Math.max(count + 2, greaterThan.length * 2));
+        }
+        //первое место блока count переходит к блоку count + 1
+        swapEmotionSlots(emotionRank[position], greaterThan[count]);
+        greaterThan[count]++;
+        emotionCounts[position]++;
+    }
+
+    private void decrementEmotions(int position) {
+        int count = emotionCounts[position];
+        //последнее место блока count переходит к блоку count - 1
+        int blockEnd = greaterThan[count - 1] - 1;
+        swapEmotionSlots(emotionRank[position], blockEnd);
+        greaterThan[count - 1]--;
+        emotionCounts[position]--;
+    }
+
+    private void swapEmotionSlots(int a, int b) {
+        int first = byEmotions[a];
+        int second = byEmotions[b];
+        byEmotions[a] = second;
+        byEmotions[b] = first;
+        emotionRank[second] = a;
+        emotionRank[first] = b;
+    }
+
+    //сортировка подсчетом: изображения с равным числом эмоций остаются в порядке альбома
+    private void buildEmotionOrder() {
+        int max = 0;
+        for (int count : emotionCounts) {
+            max = Math.max(max, count);
+        }
+        int[] ofCount = new int[max + 1];
+        for (int count : emotionCounts) {
+            ofCount[count]++;
+        }
+
+        greaterThan = new int[max + 2];
+        int greater = 0;
+        for (int count = max; count >= 0; count--) {
+            greaterThan[count] = greater;
+            greater += ofCount[count];
+        }
+
+        int[] next = Arrays.copyOf(greaterThan, max + 1);
+        for (int position = 0; position < size; position++) {
+            int slot = next[emotionCounts[position]]++;
+            byEmotions[slot] = position;
+            emotionRank[position] = slot;
+        }
+    }
+
+    /*ключ и позиция упаковываются в один long, чтобы сортировать примитивы без компаратора;
+      если ключи не помещаются, сортируем индексы с компаратором по тем же массивам */
+    private int[] sortDescending(long[] keys) {
+        int positionBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(size));
+        long limit = 1L << (63 - positionBits);
+        long max = Long.MIN_VALUE;
+        long min = Long.MAX_VALUE;
+        for (long key : keys) {
+            max = Math.max(max, key);
+            min = Math.min(min, key);
+        }
+
+        int[] order = new int[size];
+        if (size == 0) return order;
+
+        if (min >= 0 && max < limit) {
+            long[] packed = new long[size];
+            for (int i = 0; i < size; i++) {
+                //max - key: убывание ключа при возрастании long, при равенстве - порядок альбома
+                packed[i] = ((max - keys[i]) << positionBits) | i;
+            }
+            Arrays.parallelSort(packed);
+            long mask = (1L << positionBits) - 1;
+            for (int i = 0; i < size; i++) {
+                order[i] = (int) (packed[i] & mask);
+            }
+            return order;
+        }
+
+        Integer[] boxed = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            boxed[i] = i;
+        }
+        Arrays.parallelSort(boxed, (a, b) -> compareDescending(keys, a, b));
+        for (int i = 0; i < size; i++) {
+            order[i] = boxed[i];
+        }
+        return order;
+    }
+
+    private int[] sortByName() {
+        Integer[] boxed = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            boxed[i] = i;
+        }
+        Arrays.parallelSort(boxed, this::compareNames);
+
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = boxed[i];
+        }
+        return order;
+    }
+
+    /*убирает позицию со старого места и бинарным поиском вставляет на новое - один сдвиг массива */
+    private void reposition(int[] order, int position, IntComparator comparator) {
+        int from = 0;
+        while (order[from] != position) {
+            from++;
+        }
+        System.arraycopy(order, from + 1, order, from, size - from - 1);
+
+        int low = 0;
+        int high = size - 1; //последний слот свободен
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (comparator.compare(order[middle], position) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        System.arraycopy(order, low, order, low + 1, size - low - 1);
+        order[low] = position;
+    }
+
+    private int compareDates(int a, int b) {
+        return compareDescending(dates, a, b);
+    }
+
+    private int compareSizes(int a, int b) {
+        return compareDescending(sizes, a, b);
+    }
+
+    private int compareNames(int a, int b) {
+        int result = String.CASE_INSENSITIVE_ORDER.compare(names[a], names[b]);
+        if (result == 0) result = names[a].compareTo(names[b]);
+        return result != 0 ? result : Integer.compare(a, b);
+    }
+
+    private static int compareDescending(long[] keys, int a, int b) {
+        int result = Long.compare(keys[b], keys[a]);
+        return result != 0 ? result : Integer.compare(a, b);
+    }
+
+    private static List<ImageWithEmotions> select(int[] order, List<ImageWithEmotions> images) {
+        List<ImageWithEmotions> result = new ArrayList<>(order.length);
+        for (int position : order) {
+            result.add(images.get(position));
+        }
+        return result;
+    }
+
+    private interface IntComparator {
+        int compare(int a, int b);
+    }
+}
@@ -0,0 +1,538 @@
+package com.example.iterator.model;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritablePixelFormat;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*упакованное хранилище миниатюр альбома - два скрытых файла в корне альбома вместо тысяч мелких
+  .thumbnails.<поколение>.dat - заголовок и миниатюры в JPEG подряд, только дописывается
+  .thumbnails.<поколение>.idx - записи (хэш, размер и время изменения файла, смещение, длина), последняя побеждает
+  чтение идет через отображенные в память сегменты, поэтому страница сетки - это чтения из кэша страниц
+  миниатюра устарела, если размер или время изменения файла не совпадают с записанными
+  удаленные и перезаписанные миниатюры остаются мусором в .dat, его убирает compact()
+  compact() пишет следующее поколение под новыми именами: отображенный файл нельзя заменить или обрезать
+  (на Windows это ошибка), поэтому старые файлы только удаляются - сразу или при следующем открытии
+  индекс поколения появляется последним, поэтому при открытии берется самое новое поколение с индексом */
+public final class ThumbnailStore implements Closeable {
+
+    static final String FILE_PREFIX = ".thumbnails.";
+    private static final String DATA_SUFFIX = ".dat";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int DATA_MAGIC = 0x54484231;  //"THB1"
+    private static final int INDEX_MAGIC = 0x54484931; //"THI1"
+    private static final int HEADER_SIZE = 16;         //magic, версия, поколение
+    private static final long SEGMENT_SIZE = 64L * 1024 * 1024; //запись не пересекает границу сегмента
+    private static final long MIN_GARBAGE_TO_COMPACT = 8L * 1024 * 1024;
+    private static final float JPEG_QUALITY = 0.85f;
+
+    //чистка и сжатие при открытии альбома не должны задерживать поток интерфейса
+    private static final ExecutorService MAINTENANCE = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "thumbnail-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path directory;
+    private final Object compactionLock = new Object(); //одно сжатие за раз
+
+    //под монитором this
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private Path dataFile;
+    private Path indexFile;
+    private FileChannel data;
+    private DataOutputStream indexOut;
+    private long generation;
+    private long dataSize;
+    private long liveBytes = 0;
+
+    private ThumbnailStore(Path directory) throws IOException {
+        this.directory = directory;
+        long latest = latestGeneration(directory);
+        openGeneration(latest >= 0 ? latest : System.currentTimeMillis());
+    }
+
+    public static ThumbnailStore open(File albumRoot) throws IOException {
+        return new ThumbnailStore(albumRoot.toPath());
+    }
+
+    /*сохраненная миниатюра или null, если ее нет или файл с тех пор изменился */
+    public Image read(ImageWithEmotions image) {
+        ByteBuffer bytes;
+        synchronized (this) {
+            Entry entry = entries.get(image.getImageHash());
+            if (entry == null || !entry.matches(image)) return null;
+            bytes = slice(entry);
+        }
+        if (bytes == null) return null;
+
+        Image thumbnail = new Image(new BufferInputStream(bytes));
+        return thumbnail.isError() ? null : thumbnail;
+    }
+
+    public void write(ImageWithEmotions image, Image thumbnail) {
+        byte[] encoded = encode(thumbnail);
+        if (encoded == null) return;
+
+        synchronized (this) {
+            if (data == null) return; //хранилище закрыто
+            try {
+                append(new Entry(image.getImageHash(), image.getScannedFileSize(),
+                        image.getScannedLastModified(), 0, encoded.length), encoded);
+            } catch (IOException e) {
+                System.err.println("Error saving thumbnail: " + e.getMessage());
+            }
+        }
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getDataSize() {
+        return dataSize;
+    }
+
+    /*оставляет миниатюры только этих изображений; мусора больше, чем живых данных, - сжимает
+      выполняется в фоне, вызов сразу возвращается */
+    void retain(Set<String> imageHashes) {
+        Set<String> keep = new HashSet<>(imageHashes);
+        MAINTENANCE.execute(() -> {
+            try {
+                if (dropAllExcept(keep)) {
+                    compact();
+                }
+            } catch (IOException e) {
+                System.err.println("Error cleaning thumbnail store: " + e.getMessage());
+            }
+        });
+    }
+
+    //true, если пора сжимать
+    private synchronized boolean dropAllExcept(Set<String> imageHashes) throws IOException {
+        if (data == null) return false;
+        List<Entry> removed = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (!imageHashes.contains(entry.hash)) {
+                removed.add(entry);
+            }
+        }
+        for (Entry entry : removed) {
+            entries.remove(entry.hash);
+            liveBytes -= entry.length;
+            writeIndexRecord(new Entry(entry.hash, 0, 0, 0, -1)); //длина -1 - удаление
+        }
+        indexOut.flush();
+
+        long garbage = dataSize - HEADER_SIZE - liveBytes;
+        return garbage > MIN_GARBAGE_TO_COMPACT && garbage > liveBytes;
+    }
+
+    /*переписывает живые миниатюры в файлы следующего поколения и переключается на них
+      копирование идет без монитора - read()/write() ждут только дозапись изменившегося за это время
+      и само переключение */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            List<Entry> live;
+            long newGeneration;
+            synchronized (this) {
+                if (data == null) return;
+                live = new ArrayList<>(entries.values());
+                newGeneration = generation + 1;
+            }
+            Path newData = dataFile(directory, newGeneration);
+            Path newIndex = indexFile(directory, newGeneration);
+            Path indexTemp = newIndex.resolveSibling(newIndex.getFileName() + TEMP_SUFFIX);
+            Map<String, Entry> copied = new HashMap<>(); //хэш -> запись в новом файле
+            Map<String, Entry> sources = new HashMap<>(); //хэш -> из какой записи скопировано
+            boolean switched = false;
+
+            try (FileChannel out = FileChannel.open(newData, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                out.write(header(newGeneration), 0);
+                long position = HEADER_SIZE;
+                for (Entry entry : live) {
+                    position = copy(entry, out, position, copied, sources);
+                }
+
+                synchronized (this) {
+                    if (data == null) return; //закрыто во время копирования
+                    for (Entry entry : entries.values()) {
+                        if (sources.get(entry.hash) != entry) {
+                            position = copy(entry, out, position, copied, sources);
+                        }
+                    }
+                    copied.keySet().retainAll(entries.keySet());
+                    out.force(false);
+                    writeIndex(indexTemp, newGeneration, copied.values());
+                    Files.move(indexTemp, newIndex, StandardCopyOption.ATOMIC_MOVE);
+                    switched = true;
+
+                    Path oldData = dataFile;
+                    Path oldIndex = indexFile;
+                    close();
+                    openGeneration(newGeneration);
+                    //на Windows отображенный файл удалится только при следующем открытии
+                    deleteQuietly(oldIndex);
+                    deleteQuietly(oldData);
+                }
+            } finally {
+                if (!switched) {
+                    deleteQuietly(indexTemp);
+                    deleteQuietly(newData);
+                }
+            }
+        }
+    }
+
+    private long copy(Entry entry, FileChannel out, long position,
+                      Map<String, Entry> copied, Map<String, Entry> sources) throws IOException {
+        ByteBuffer bytes;
+        synchronized (this) {
+            bytes = slice(entry);
+        }
+        if (bytes == null) return position;
+        position = alignForRecord(position, entry.length);
+        writeFully(out, bytes, position);
+        copied.put(entry.hash, new Entry(entry.hash, entry.fileSize, entry.lastModified, position, entry.length));
+        sources.put(entry.hash, entry);
+        return position + entry.length;
+    }
+
+    private static void writeIndex(Path file, long generation, Collection<Entry> records) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             DataOutputStream index = new DataOutputStream(new BufferedOutputStream(
+                     Channels.newOutputStream(channel)))) {
+            index.writeInt(INDEX_MAGIC);
+            index.writeLong(generation);
+            for (Entry entry : records) {
+                entry.writeTo(index);
+            }
+            index.flush();
+            channel.force(false);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (indexOut != null) {
+            indexOut.close();
+            indexOut = null;
+        }
+        if (data != null) {
+            data.close();
+            data = null;
+        }
+        segments.clear(); //отображения освобождаются сборщиком мусора
+    }
+
+    /*самое новое поколение, у которого есть и данные, и индекс; файлы остальных поколений
+      (и хранилища старого формата без поколения в имени) удаляются */
+    private static long latestGeneration(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        long latest = -1;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, FILE_PREFIX + "*")) {
+            for (Path file : stream) {
+                files.add(file);
+                long candidate = generationOf(file, INDEX_SUFFIX);
+                if (candidate > latest && Files.exists(dataFile(directory, candidate))) {
+                    latest = candidate;
+                }
+            }
+        }
+        for (Path file : files) {
+            if (latest < 0 || !file.equals(dataFile(directory, latest)) && !file.equals(indexFile(directory, latest))) {
+                deleteQuietly(file);
+            }
+        }
+        return latest;
+    }
+
+    //-1, если имя не вида .thumbnails.<поколение><suffix>
+    private static long generationOf(Path file, String suffix) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(FILE_PREFIX) || !name.endsWith(suffix)) return -1;
+        try {
+            return Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    private static Path dataFile(Path directory, long generation) {
+        return directory.resolve(FILE_PREFIX + generation + DATA_SUFFIX);
+    }
+
+    private static Path indexFile(Path directory, long generation) {
+        return directory.resolve(FILE_PREFIX + generation + INDEX_SUFFIX);
+    }
+
+    private void openGeneration(long candidate) throws IOException {
+        generation = candidate;
+        dataFile = dataFile(directory, candidate);
+        indexFile = indexFile(directory, candidate);
+        data = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        boolean valid = data.size() >= HEADER_SIZE && data.read(header, 0) == HEADER_SIZE
+                && header.getInt(0) == DATA_MAGIC && header.getLong(8) == candidate;
+        if (!valid) {
+            if (data.size() > 0) {
+                //миниатюры можно построить заново - испорченный файл не чиним, а начинаем новое поколение
+                data.close();
+                deleteQuietly(dataFile);
+                deleteQuietly(indexFile);
+                generation = Math.max(System.currentTimeMillis(), candidate + 1);
+                dataFile = dataFile(directory, generation);
+                indexFile = indexFile(directory, generation);
+                data = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            data.write(header(generation), 0);
+        }
+        dataSize = data.size();
+        segments.clear();
+        loadIndex();
+        hide(dataFile);
+        hide(indexFile);
+    }
+
+    /*индекс читается целиком; оборванная при сбое последняя запись отрезается,
+      записи, чьи данные не успели попасть в .dat, отбрасываются */
+    private void loadIndex() throws IOException {
+        entries.clear();
+        liveBytes = 0;
+        long good = 0;
+        boolean valid = false;
+
+        if (Files.exists(indexFile)) {
+            byte[] bytes = Files.readAllBytes(indexFile);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            try {
+                valid = in.readInt() == INDEX_MAGIC && in.readLong() == generation;
+                good = bytes.length - in.available();
+                while (valid && in.available() > 0) {
+                    Entry entry = Entry.readFrom(in);
+                    good = bytes.length - in.available();
+                    Entry previous = entries.remove(entry.hash);
+                    if (previous != null) liveBytes -= previous.length;
+                    if (entry.length >= 0 && entry.offset + entry.length <= dataSize) {
+                        entries.put(entry.hash, entry);
+                        liveBytes += entry.length;
+                    }
+                }
+            } catch (EOFException e) {
+                //оборванная последняя запись
+            }
+        }
+
+        if (valid) {
+            try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.WRITE)) {
+                channel.truncate(good);
+            }
+            indexOut = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(indexFile.toFile(), true)));
+        } else {
+            entries.clear();
+            liveBytes = 0;
+            indexOut = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(indexFile.toFile(), false)));
+            indexOut.writeInt(INDEX_MAGIC);
+            indexOut.writeLong(generation);
+            indexOut.flush();
+        }
+    }
+
+
+    //данные пишутся раньше записи индекса - индекс никогда не ссылается на недописанные байты
+    private void append(Entry entry, byte[] encoded) throws IOException {
+        long position = alignForRecord(dataSize, encoded.length);
+        writeFully(data, ByteBuffer.wrap(encoded), position);
+        dataSize = position + encoded.length;
+
+        Entry stored = new Entry(entry.hash, entry.fileSize, entry.lastModified, position, encoded.length);
+        writeIndexRecord(stored);
+        indexOut.flush();
+
+        Entry previous = entries.put(stored.hash, stored);
+        if (previous != null) liveBytes -= previous.length;
+        liveBytes += stored.length;
+    }
+
+    private void writeIndexRecord(Entry entry) throws IOException {
+        entry.writeTo(indexOut);
+    }
+
+    private ByteBuffer slice(Entry entry) {
+        if (data == null) return null;
+        int index = (int) (entry.offset / SEGMENT_SIZE);
+        long segmentStart = index * SEGMENT_SIZE;
+        int start = (int) (entry.offset - segmentStart);
+        try {
+            while (segments.size() <= index) {
+                segments.add(null);
+            }
+            MappedByteBuffer segment = segments.get(index);
+            //последний сегмент растет вместе с файлом - отображаем заново, если запись дальше его конца
+            if (segment == null || segment.capacity() < start + entry.length) {
+                long length = Math.min(SEGMENT_SIZE, dataSize - segmentStart);
+                segment = data.map(FileChannel.MapMode.READ_ONLY, segmentStart, length);
+                segments.set(index, segment);
+            }
+            return segment.slice(start, entry.length);
+        } catch (IOException e) {
+            System.err.println("Error reading thumbnail store: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer bytes, long position) throws IOException {
+        long start = position - bytes.position();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes, start + bytes.position());
+        }
+    }
+
+    private static long alignForRecord(long position, int length) {
+        long segmentEnd = (position / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+        return position + length > segmentEnd ? segmentEnd : position;
+    }
+
+    private static ByteBuffer header(long generation) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(DATA_MAGIC).putInt(1).putLong(generation).flip();
+        return header;
+    }
+
+    //в JPEG нет прозрачности - полупрозрачные пиксели накладываются на белый фон
+    private static byte[] encode(Image thumbnail) {
+        PixelReader reader = thumbnail.getPixelReader();
+        if (reader == null) return null;
+
+        int width = (int) thumbnail.getWidth();
+        int height = (int) thumbnail.getHeight();
+        int[] pixels = new int[width * height];
+        reader.getPixels(0, 0, width, height, WritablePixelFormat.getIntArgbInstance(), pixels, 0, width);
+        for (int i = 0; i < pixels.length; i++) {
+            int argb = pixels[i];
+            int alpha = argb >>> 24;
+            if (alpha != 255) {
+                int r = 255 + (((argb >> 16) & 0xFF) - 255) * alpha / 255;
+                int g = 255 + (((argb >> 8) & 0xFF) - 255) * alpha / 255;
+                int b = 255 + ((argb & 0xFF) - 255) * alpha / 255;
+                pixels[i] = (r << 16) | (g << 8) | b;
+            }
+        }
+        BufferedImage rgb = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        rgb.setRGB(0, 0, width, height, pixels, 0, width);
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(rgb, null, null), param);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            //занят (на Windows - еще отображен), удалится при следующем открытии
+        }
+    }
+
+    //на Windows точка в начале имени файл не скрывает
+    private static void hide(Path file) {
+        try {
+            Files.setAttribute(file, "dos:hidden", true);
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            //не DOS-совместимая файловая система
+        }
+    }
+
+    private static final class Entry {
+        final String hash;
+        final long fileSize;
+        final long lastModified;
+        final long offset;
+        final int length;
+
+        Entry(String hash, long fileSize, long lastModified, long offset, int length) {
+            this.hash = hash;
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        boolean matches(ImageWithEmotions image) {
+            return fileSize == image.getScannedFileSize() && lastModified == image.getScannedLastModified();
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeUTF(hash);
+            out.writeLong(fileSize);
+            out.writeLong(lastModified);
+            out.writeLong(offset);
+            out.writeInt(length);
+        }
+
+        static Entry readFrom(DataInputStream in) throws IOException {
+            return new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readLong(), in.readInt());
+        }
+    }
+
+    //поток поверх отображенного буфера - байты миниатюры не копируются в кучу
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) {
+            if (!buffer.hasRemaining()) return -1;
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(target, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -3,6 +3,7 @@ module com.example.iterator {
     requires javafx.fxml;
     requires javafx.graphics;
     requires javafx.base;
+    requires java.desktop; //ImageIO - кодирование миниатюр в JPEG
     requires com.fasterxml.jackson.annotation;
     requires com.fasterxml.jackson.databind;
 
@@ -0,0 +1,133 @@
+package com.example.iterator.emotions;
+
+import com.example.iterator.model.FingerprintService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*гонка save/remove/getEmotions с flush()/setFlushPolicy(): после закрытия менеджера
+  хранилище, открытое заново, должно совпадать с тем, что было в памяти */
+class EmotionManagerStressTest {
+
+    private static final int FILES = 6;
+    private static final int WORKERS = 4;
+    private static final int OPERATIONS = 1500;
+
+    //маленькие очереди, чтобы запись чаще упиралась в заполненную очередь
+    private static final FlushPolicy[] POLICIES = {
+            FlushPolicy.explicit(8),
+            FlushPolicy.countBased(4, 16),
+            FlushPolicy.timeBased(1, 32),
+    };
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @Timeout(60)
+    void jsonStorageMatchesMemory() throws Exception {
+        race("json");
+    }
+
+    @Test
+    @Timeout(60)
+    void binaryStorageMatchesMemory() throws Exception {
+        race("binary");
+    }
+
+    private void race(String storageType) throws Exception {
+        Path storageDirectory = Files.createDirectory(directory.resolve(storageType));
+        List<File> images = createImages(storageType);
+        FingerprintService fingerprints = FingerprintService.getInstance();
+        EmotionManager manager = new EmotionManager(fingerprints,
+                EmotionStorage.getStorage(storageType, storageDirectory), storageDirectory, POLICIES[0]);
+
+        ExecutorService pool = Executors.newFixedThreadPool(WORKERS + 1);
+        AtomicBoolean running = new AtomicBoolean(true);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int w = 0; w < WORKERS; w++) {
+                int worker = w;
+                workers.add(pool.submit(() -> work(manager, images, worker)));
+            }
+            Future<?> flusher = pool.submit(() -> {
+                Random random = new Random(42);
+                while (running.get()) {
+                    if (random.nextBoolean()) {
+                        manager.flush();
+                    } else {
+                        manager.setFlushPolicy(POLICIES[random.nextInt(POLICIES.length)]);
+                    }
+                }
+                return null;
+            });
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+            running.set(false);
+            flusher.get();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Map<String, Set<String>> expected = new HashMap<>();
+        for (File image : images) {
+            expected.put(fingerprints.fingerprint(image), ids(manager.getEmotions(image)));
+        }
+        manager.close();
+
+        try (EmotionStorage reopened = EmotionStorage.getStorage(storageType, storageDirectory)) {
+            for (Map.Entry<String, Set<String>> entry : expected.entrySet()) {
+                assertEquals(entry.getValue(), ids(reopened.read(entry.getKey())),
+                        "emotions of " + entry.getKey());
+            }
+        }
+        assertTrue(expected.values().stream().anyMatch(ids -> !ids.isEmpty()), "race left no emotions at all");
+    }
+
+    private static Void work(EmotionManager manager, List<File> images, int worker) {
+        Random random = new Random(worker);
+        for (int i = 0; i < OPERATIONS; i++) {
+            File image = images.get(random.nextInt(images.size()));
+            List<Emotion> current = manager.getEmotions(image);
+            if (current.isEmpty() || random.nextInt(3) > 0) {
+                SmileyEmotion.SmileyType[] types = SmileyEmotion.SmileyType.values();
+                manager.saveEmotion(image, new SmileyEmotion("w" + worker + "-" + i, "user",
+                        types[random.nextInt(types.length)]));
+            } else {
+                //чужие эмоции тоже: удаление может гоняться с другим удалением того же id
+                manager.removeEmotion(image, current.get(random.nextInt(current.size())).getId());
+            }
+        }
+        return null;
+    }
+
+    private List<File> createImages(String prefix) throws IOException {
+        List<File> images = new ArrayList<>();
+        for (int i = 0; i < FILES; i++) {
+            Path image = directory.resolve(prefix + "-" + i + ".png");
+            Files.write(image, new byte[100 + i]);
+            images.add(image.toFile());
+        }
+        return images;
+    }
+
+    private static Set<String> ids(List<Emotion> emotions) {
+        Set<String> ids = new HashSet<>();
+        for (Emotion emotion : emotions) {
+            ids.add(emotion.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.iterator.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*поиск MultiIndexHash против линейного перебора по расстоянию Хэмминга:
+  набор из групп близких хэшей (до 12 измененных бит от общего центра) и случайных хэшей */
+class MultiIndexHashTest {
+
+    private static final int[] DISTANCES = {0, 3, 6, 10};
+
+    @Test
+    void searchMatchesLinearScan() {
+        Random random = new Random(5);
+        List<Long> generated = new ArrayList<>();
+        for (int group = 0; group < 150; group++) {
+            long center = random.nextLong();
+            for (int member = random.nextInt(8); member >= 0; member--) {
+                generated.add(flipBits(center, random.nextInt(13), random));
+            }
+        }
+        for (int i = 0; i < 500; i++) {
+            generated.add(random.nextLong());
+        }
+
+        long[] hashes = new long[generated.size()];
+        int[] ids = new int[hashes.length];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = generated.get(i);
+            ids[i] = 1000 + i; //id отличается от номера в массиве
+        }
+        MultiIndexHash index = new MultiIndexHash(hashes, ids);
+        assertEquals(hashes.length, index.size());
+
+        int nonTrivial = 0;
+        for (int query = 0; query < 400; query++) {
+            //запросы - и сами хэши набора, и их искаженные копии
+            long hash = flipBits(hashes[random.nextInt(hashes.length)], random.nextInt(6), random);
+            for (int distance : DISTANCES) {
+                Set<Integer> expected = new TreeSet<>();
+                for (int i = 0; i < hashes.length; i++) {
+                    if (Long.bitCount(hash ^ hashes[i]) <= distance) {
+                        expected.add(ids[i]);
+                    }
+                }
+
+                List<Integer> found = new ArrayList<>();
+                index.search(hash, distance, found::add);
+                assertEquals(expected.size(), found.size(), "each match reported once, k = " + distance);
+                assertEquals(expected, new TreeSet<>(found), "k = " + distance);
+                if (expected.size() > 1) nonTrivial++;
+            }
+        }
+        assertTrue(nonTrivial > 100, "queries should hit groups of near duplicates");
+    }
+
+    @Test
+    void emptyIndexFindsNothing() {
+        MultiIndexHash index = new MultiIndexHash(new long[0], new int[0]);
+        List<Integer> found = new ArrayList<>();
+        assertEquals(0, index.search(42L, 10, found::add));
+        assertTrue(found.isEmpty());
+    }
+
+    //count разных случайных битов
+    private static long flipBits(long hash, int count, Random random) {
+        long mask = 0;
+        while (Long.bitCount(mask) < count) {
+            mask |= 1L << random.nextInt(64);
+        }
+        return hash ^ mask;
+    }
+}
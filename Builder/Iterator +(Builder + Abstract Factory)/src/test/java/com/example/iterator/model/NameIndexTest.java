@@ -0,0 +1,128 @@
+package com.example.iterator.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*точный, префиксный и подстрочный поиск NameIndex против перебора имен альбома
+  после добавлений, переименований и удаления позиций (сдвиг остальных) */
+class NameIndexTest {
+
+    private static final String[] PARTS = {"img", "IMG", "dsc", "Photo", "photo", "_", "-", "2024", "01", "a", "ab",
+            "abc", "ёлка", "Ёж", "x"};
+
+    private final Random random = new Random(3);
+
+    @Test
+    void searchMatchesScanOfNames() {
+        List<String> album = new ArrayList<>();
+        NameIndex index = new NameIndex();
+        for (int i = 0; i < 400; i++) {
+            String name = randomName();
+            index.add(album.size(), name);
+            album.add(name);
+        }
+        assertMatchesScan(index, album);
+
+        for (int round = 0; round < 10; round++) {
+            //переименования на месте
+            for (int i = 0; i < 30; i++) {
+                int position = random.nextInt(album.size());
+                String name = randomName();
+                index.remove(position, album.get(position));
+                index.add(position, name);
+                album.set(position, name);
+            }
+            //удаление позиций: остальные сдвигаются
+            TreeSet<Integer> removed = new TreeSet<>();
+            while (removed.size() < 15) {
+                removed.add(random.nextInt(album.size()));
+            }
+            int[] sorted = removed.stream().mapToInt(Integer::intValue).toArray();
+            index.positionsRemoved(sorted);
+            for (Integer position : removed.descendingSet()) {
+                album.remove((int) position);
+            }
+            //новые файлы в конец
+            for (int i = 0; i < 20; i++) {
+                String name = randomName();
+                index.add(album.size(), name);
+                album.add(name);
+            }
+            assertMatchesScan(index, album);
+        }
+    }
+
+    @Test
+    void limitCutsResults() {
+        NameIndex index = new NameIndex();
+        for (int i = 0; i < 50; i++) {
+            index.add(i, "holiday-" + i + ".jpg");
+        }
+        assertEquals(7, index.prefix("HOLI", 7).length);
+        assertEquals(7, index.substring("day", 7).length);
+        assertEquals(7, index.substring("d", 7).length);
+        assertEquals(0, index.substring("xyz", 7).length);
+    }
+
+    private void assertMatchesScan(NameIndex index, List<String> album) {
+        Set<String> queries = new TreeSet<>();
+        for (int i = 0; i < 60; i++) {
+            String name = album.get(random.nextInt(album.size()));
+            int start = random.nextInt(name.length());
+            int end = Math.min(name.length(), start + 1 + random.nextInt(6));
+            queries.add(name.substring(start, end));
+            queries.add(name.substring(0, end).toUpperCase(Locale.ROOT));
+            queries.add(name);
+        }
+        queries.add("нет такого");
+
+        for (String query : queries) {
+            String folded = NameIndex.fold(query);
+            assertEquals(scan(album, name -> name.equals(folded)), sorted(index.exact(query)), "exact " + query);
+            assertEquals(scan(album, name -> name.startsWith(folded)), sorted(index.prefix(query, Integer.MAX_VALUE)),
+                    "prefix " + query);
+            assertEquals(scan(album, name -> name.contains(folded)), sorted(index.substring(query, Integer.MAX_VALUE)),
+                    "substring " + query);
+
+            //префиксы - по алфавиту
+            int[] byPrefix = index.prefix(query, Integer.MAX_VALUE);
+            for (int i = 1; i < byPrefix.length; i++) {
+                String previous = NameIndex.fold(album.get(byPrefix[i - 1]));
+                assertTrue(previous.compareTo(NameIndex.fold(album.get(byPrefix[i]))) <= 0, "prefix order " + query);
+            }
+        }
+    }
+
+    private static List<Integer> scan(List<String> album, Predicate<String> matches) {
+        List<Integer> positions = new ArrayList<>();
+        for (int position = 0; position < album.size(); position++) {
+            if (matches.test(NameIndex.fold(album.get(position)))) {
+                positions.add(position);
+            }
+        }
+        return positions;
+    }
+
+    private static List<Integer> sorted(int[] positions) {
+        List<Integer> list = new ArrayList<>();
+        for (int position : positions) {
+            list.add(position);
+        }
+        Collections.sort(list);
+        return list;
+    }
+
+    //имена из общих частей - много повторов, общих префиксов и триграмм
+    private String randomName() {
+        StringBuilder name = new StringBuilder();
+        for (int i = 1 + random.nextInt(4); i > 0; i--) {
+            name.append(PARTS[random.nextInt(PARTS.length)]);
+        }
+        return name.append(random.nextBoolean() ? ".jpg" : ".PNG").toString();
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.iterator.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/*PersistentVector против ArrayList на границах хвоста (32), второго уровня (1024 + 32)
+  и третьего (32768 + 1024): append, pop, of() и неизменность старых версий */
+class PersistentVectorTest {
+
+    private static final int MAX_SIZE = 34_000;
+    private static final int[] BOUNDARIES = {0, 1, 31, 32, 33, 63, 64, 65, 1023, 1024, 1025,
+            1055, 1056, 1057, 1088, 32_767, 32_768, 32_769, 33_791, 33_792, 33_793, 33_824, 33_825};
+
+    @Test
+    void appendMatchesArrayList() {
+        List<Integer> expected = new ArrayList<>();
+        PersistentVector<Integer> vector = PersistentVector.empty();
+        for (int i = 0; i < MAX_SIZE; i++) {
+            if (isBoundary(i)) {
+                assertMatches(expected, vector);
+            }
+            vector = vector.append(i);
+            expected.add(i);
+        }
+        assertMatches(expected, vector);
+    }
+
+    @Test
+    void popMatchesArrayList() {
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < MAX_SIZE; i++) {
+            expected.add(i);
+        }
+        PersistentVector<Integer> vector = PersistentVector.of(expected);
+        while (!expected.isEmpty()) {
+            vector = vector.pop();
+            expected.remove(expected.size() - 1);
+            if (isBoundary(expected.size())) {
+                assertMatches(expected, vector);
+            }
+        }
+        assertThrows(IllegalStateException.class, vector::pop);
+    }
+
+    @Test
+    void ofMatchesAppend() {
+        for (int size : BOUNDARIES) {
+            List<Integer> expected = new ArrayList<>();
+            PersistentVector<Integer> appended = PersistentVector.empty();
+            for (int i = 0; i < size; i++) {
+                expected.add(i);
+                appended = appended.append(i);
+            }
+            assertMatches(expected, PersistentVector.of(expected));
+            //после of() дерево продолжает расти так же, как после append
+            assertMatches(append(expected, -1), PersistentVector.of(expected).append(-1));
+            assertEquals(appended, PersistentVector.of(expected));
+        }
+    }
+
+    @Test
+    void oldVersionsStayIntact() {
+        List<PersistentVector<Integer>> versions = new ArrayList<>();
+        PersistentVector<Integer> vector = PersistentVector.empty();
+        for (int i = 0; i < 1100; i++) {
+            versions.add(vector);
+            vector = vector.append(i);
+        }
+        for (int i = 0; i < 1100; i += 50) {
+            vector = vector.pop().append(-i); //ветки от последней версии
+        }
+        for (int size = 0; size < versions.size(); size++) {
+            PersistentVector<Integer> version = versions.get(size);
+            assertEquals(size, version.size());
+            for (int i = 0; i < size; i++) {
+                assertEquals(i, version.get(i));
+            }
+        }
+    }
+
+    @Test
+    void getOutOfRangeThrows() {
+        PersistentVector<Integer> vector = PersistentVector.<Integer>empty().append(1);
+        assertThrows(IndexOutOfBoundsException.class, () -> vector.get(1));
+        assertThrows(IndexOutOfBoundsException.class, () -> vector.get(-1));
+    }
+
+    private static boolean isBoundary(int size) {
+        for (int boundary : BOUNDARIES) {
+            if (boundary == size) return true;
+        }
+        return false;
+    }
+
+    private static List<Integer> append(List<Integer> list, int item) {
+        List<Integer> copy = new ArrayList<>(list);
+        copy.add(item);
+        return copy;
+    }
+
+    //get, итератор и equals по отдельности - итератор ходит по листам, а не через get
+    private static void assertMatches(List<Integer> expected, PersistentVector<Integer> vector) {
+        assertEquals(expected.size(), vector.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), vector.get(i), "index " + i + " of " + expected.size());
+        }
+        assertEquals(expected, new ArrayList<>(vector));
+    }
+}
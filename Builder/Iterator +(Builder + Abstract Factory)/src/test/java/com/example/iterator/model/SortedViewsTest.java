@@ -0,0 +1,164 @@
+package com.example.iterator.model;
+
+import com.example.iterator.emotions.Emotion;
+import com.example.iterator.emotions.SmileyEmotion;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*перестановки SortedViews, место в рейтинге и top-k против полной сортировки - сразу после построения
+  и после точечных замен (эмоции, дата, размер, имя); ключи с повторами, чтобы проверялся порядок равных */
+class SortedViewsTest {
+
+    private static final int IMAGES = 300;
+
+    @TempDir
+    Path directory;
+
+    private final Random random = new Random(11);
+    private int nextEmotionId = 0;
+
+    @Test
+    void viewsMatchFullSort() throws IOException {
+        List<ImageWithEmotions> images = createImages(false);
+        assertMatchesFullSort(new SortedViews(images), images);
+    }
+
+    //отрицательные даты не упаковываются в long - сортировка идет через компаратор
+    @Test
+    void viewsMatchFullSortWithNegativeKeys() throws IOException {
+        List<ImageWithEmotions> images = createImages(true);
+        assertMatchesFullSort(new SortedViews(images), images);
+    }
+
+    @Test
+    void replacedKeepsViewsSorted() throws IOException {
+        List<ImageWithEmotions> images = createImages(false);
+        SortedViews views = new SortedViews(images);
+
+        for (int round = 0; round < 20; round++) {
+            for (int change = 0; change < 25; change++) {
+                int position = random.nextInt(IMAGES);
+                ImageWithEmotions oldImage = images.get(position);
+                ImageWithEmotions newImage = mutate(oldImage);
+                images.set(position, newImage);
+                views.replaced(position, oldImage, newImage);
+            }
+            assertMatchesFullSort(views, images);
+        }
+    }
+
+    private ImageWithEmotions mutate(ImageWithEmotions image) {
+        switch (random.nextInt(5)) {
+            case 0:
+                return image.addEmotion(emotion());
+            case 1:
+                List<Emotion> emotions = image.getEmotions();
+                return emotions.isEmpty()
+                        ? image
+                        : image.removeEmotion(emotions.get(random.nextInt(emotions.size())).getId());
+            case 2:
+                return new ImageWithEmotions.Builder(image).withMetadata("lastModified", (long) random.nextInt(50)).build();
+            case 3:
+                return new ImageWithEmotions.Builder(image).withMetadata("fileSize", (long) random.nextInt(50)).build();
+            default:
+                File renamed = directory.resolve("renamed-" + random.nextInt(40) + ".png").toFile();
+                return new ImageWithEmotions.Builder(image, renamed).build();
+        }
+    }
+
+    private static void assertMatchesFullSort(SortedViews views, List<ImageWithEmotions> images) {
+        Comparator<Integer> byDate = Comparator.<Integer>comparingLong(i -> images.get(i).getScannedLastModified())
+                .reversed().thenComparing(Comparator.naturalOrder());
+        Comparator<Integer> bySize = Comparator.<Integer>comparingLong(i -> images.get(i).getScannedFileSize())
+                .reversed().thenComparing(Comparator.naturalOrder());
+        Comparator<Integer> byName = Comparator.<Integer, String>comparing(i -> images.get(i).getFileName(),
+                        String.CASE_INSENSITIVE_ORDER)
+                .thenComparing(i -> images.get(i).getFileName())
+                .thenComparing(Comparator.naturalOrder());
+
+        assertEquals(fullSort(images, byDate), views.byDate(images), "by date");
+        assertEquals(fullSort(images, bySize), views.bySize(images), "by size");
+        assertEquals(fullSort(images, byName), views.byName(images), "by name");
+
+        //порядок равных по числу эмоций не задан - сверяем последовательность счетчиков и состав
+        List<ImageWithEmotions> byEmotions = views.byEmotionCount(images);
+        List<Integer> expectedCounts = new ArrayList<>();
+        for (ImageWithEmotions image : images) {
+            expectedCounts.add(image.getEmotions().size());
+        }
+        expectedCounts.sort(Comparator.reverseOrder());
+        assertEquals(expectedCounts, counts(byEmotions), "by emotion count");
+        assertEquals(identities(images), identities(byEmotions));
+
+        for (int k : new int[]{0, 1, 5, 37, IMAGES, IMAGES + 10}) {
+            List<ImageWithEmotions> top = views.topByEmotionCount(k, images);
+            assertEquals(byEmotions.subList(0, Math.min(k, IMAGES)), top, "top " + k);
+        }
+
+        for (int position = 0; position < images.size(); position++) {
+            int count = images.get(position).getEmotions().size();
+            int expectedRank = 1 + (int) images.stream().filter(image -> image.getEmotions().size() > count).count();
+            assertEquals(expectedRank, views.emotionRankOf(position), "rank of " + position);
+        }
+    }
+
+    private static List<ImageWithEmotions> fullSort(List<ImageWithEmotions> images, Comparator<Integer> order) {
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < images.size(); i++) {
+            positions.add(i);
+        }
+        positions.sort(order);
+        List<ImageWithEmotions> sorted = new ArrayList<>();
+        for (int position : positions) {
+            sorted.add(images.get(position));
+        }
+        return sorted;
+    }
+
+    private static List<Integer> counts(List<ImageWithEmotions> images) {
+        List<Integer> counts = new ArrayList<>();
+        for (ImageWithEmotions image : images) {
+            counts.add(image.getEmotions().size());
+        }
+        return counts;
+    }
+
+    private static Set<ImageWithEmotions> identities(List<ImageWithEmotions> images) {
+        Set<ImageWithEmotions> set = Collections.newSetFromMap(new IdentityHashMap<>());
+        set.addAll(images);
+        return set;
+    }
+
+    private List<ImageWithEmotions> createImages(boolean negativeDates) throws IOException {
+        List<ImageWithEmotions> images = new ArrayList<>();
+        for (int i = 0; i < IMAGES; i++) {
+            //имена с повторами и разным регистром
+            String name = (random.nextBoolean() ? "IMG-" : "img-") + random.nextInt(60) + "-" + i + ".png";
+            File file = Files.write(directory.resolve(name), new byte[]{(byte) i}).toFile();
+            long date = random.nextInt(50) - (negativeDates ? 25 : 0);
+            ImageWithEmotions.Builder builder = new ImageWithEmotions.Builder(file)
+                    .withMetadata("lastModified", date)
+                    .withMetadata("fileSize", (long) random.nextInt(50));
+            for (int e = random.nextInt(4); e > 0; e--) {
+                builder.withEmotion(emotion());
+            }
+            images.add(builder.build());
+        }
+        assertTrue(images.stream().anyMatch(image -> image.getEmotions().size() > 1));
+        return images;
+    }
+
+    private Emotion emotion() {
+        SmileyEmotion.SmileyType[] types = SmileyEmotion.SmileyType.values();
+        return new SmileyEmotion("e" + nextEmotionId++, "user", types[random.nextInt(types.length)]);
+    }
+}
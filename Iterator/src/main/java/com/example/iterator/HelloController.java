@@ -3,6 +3,7 @@ package com.example.iterator;
 import com.example.iterator.model.Iterator;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.ComboBox;
@@ -13,6 +14,9 @@ import javafx.stage.DirectoryChooser;
 import javafx.util.Duration;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class HelloController {
     @FXML private ImageView imageView;
@@ -25,6 +29,16 @@ public class HelloController {
     private int slideDelay = 2;
     private int currentIndex = -1; //индекс в контроллере
     private int totalImages = 0;
+    //своих хэшей файлов в этом модуле нет - ключ кэша из пути, размера и времени изменения
+    private final ImageLoadingService imageLoader = new ImageLoadingService(
+            3, file -> file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified(),
+            DecodedImageCache.getInstance());
+    private boolean forward = true; //направление просмотра для предзагрузки
+
+    //масштаб по Ctrl+колесо мыши: 1.25^zoomLevel
+    private static final double ZOOM_STEP = 1.25;
+    private static final int MAX_ZOOM_LEVEL = 6;
+    private int zoomLevel = 0;
 
     @FXML
     public void initialize() {
@@ -34,6 +48,16 @@ public class HelloController {
                 "GIF", "BMP"
         );
         formatCombo.getSelectionModel().selectFirst();
+
+        imageView.setOnScroll(event -> {
+            if (event.isControlDown() && currentIndex >= 0 && event.getDeltaY() != 0) {
+                setZoomLevel(zoomLevel + (event.getDeltaY() > 0 ? 1 : -1));
+                //более крупный кадр декодируется заново, до готовности виден прежний
+                showImage(slides.getFile(currentIndex));
+                event.consume();
+            }
+        });
+        updateTargetSize();
     }
 
     @FXML
@@ -45,6 +69,7 @@ public class HelloController {
         if (directory != null && directory.exists()) {
             String filter = formatCombo.getValue();
             slides = new ConcreteAggregate(directory.getAbsolutePath(), filter);
+            updateTargetSize(); //окно уже показано - известен масштаб экрана
             iterator = slides.getIterator();
             totalImages = slides.getFileCount();
             currentIndex = -1;
@@ -68,6 +93,7 @@ public class HelloController {
                 new KeyFrame(Duration.seconds(slideDelay), e -> showNext())
         );
         timeline.setCycleCount(Timeline.INDEFINITE);
+        imageLoader.resetCounters();
         timeline.play();
         statusLabel.setText("Слайд-шоу запущено");
     }
@@ -76,7 +102,9 @@ public class HelloController {
     private void stopSlideShow(ActionEvent event) {
         if (timeline != null) {
             timeline.stop();
-            statusLabel.setText("Слайд-шоу остановлено");
+            long total = imageLoader.getHits() + imageLoader.getMisses();
+            statusLabel.setText("Слайд-шоу остановлено (кадров готово заранее: " +
+                    imageLoader.getHits() + " из " + total + ")");
         }
     }
 
@@ -91,12 +119,9 @@ public class HelloController {
                 currentIndex++;
                 if (currentIndex >= totalImages) currentIndex = 0;
 
-                Image image = loadImage(file);
-                if (image != null) {
-                    imageView.setImage(image);
-                    statusLabel.setText("Изображение " + (currentIndex + 1) + "/" + totalImages +
-                            ": " + file.getName());
-                }
+                forward = true;
+                setZoomLevel(0);
+                showImage(file);
             }
         }
     }
@@ -109,24 +134,62 @@ public class HelloController {
                 currentIndex--;
                 if (currentIndex < 0) currentIndex = totalImages - 1;
 
-                Image image = loadImage(file);
-                if (image != null) {
-                    imageView.setImage(image);
-                    statusLabel.setText("Изображение " + (currentIndex + 1) + "/" + totalImages +
-                            ": " + file.getName());
-                }
+                forward = false;
+                setZoomLevel(0);
+                showImage(file);
             }
         }
     }
 
-    private Image loadImage(File file) {
-        try {
-            if (!file.exists() || file.length() == 0) {
-                return null;
+    //декодирование в фоне; если кадр еще не готов, он появится, когда будет декодирован
+    private void showImage(File file) {
+        statusLabel.setText("Изображение " + (currentIndex + 1) + "/" + totalImages + ": " + file.getName());
+
+        CompletableFuture<Image> decoded = imageLoader.show(file, upcomingFiles());
+        if (decoded.isDone()) {
+            setImage(decoded.getNow(null));
+            return;
+        }
+        int shownIndex = currentIndex;
+        decoded.thenAccept(image -> Platform.runLater(() -> {
+            //пока декодировали, могли перелистнуть дальше
+            if (shownIndex == currentIndex) {
+                setImage(image);
             }
-            return new Image(file.toURI().toString());
-        } catch (Exception e) {
-            return null;
+        }));
+    }
+
+    private void setImage(Image image) {
+        if (image != null) {
+            imageView.setImage(image);
+        }
+    }
+
+    private void setZoomLevel(int level) {
+        zoomLevel = Math.max(0, Math.min(MAX_ZOOM_LEVEL, level));
+        double zoom = Math.pow(ZOOM_STEP, zoomLevel);
+        imageView.setScaleX(zoom);
+        imageView.setScaleY(zoom);
+        updateTargetSize();
+    }
+
+    /*декодируем под область показа с учетом масштаба и плотности пикселей экрана */
+    private void updateTargetSize() {
+        double scale = Math.pow(ZOOM_STEP, zoomLevel);
+        if (imageView.getScene() != null && imageView.getScene().getWindow() != null) {
+            scale *= imageView.getScene().getWindow().getOutputScaleX();
+        }
+        imageLoader.setTargetSize((int) Math.ceil(imageView.getFitWidth() * scale),
+                (int) Math.ceil(imageView.getFitHeight() * scale));
+    }
+
+    /*файлы, которые покажут следующими при листании в текущем направлении (просмотр закольцован) */
+    private List<File> upcomingFiles() {
+        List<File> upcoming = new ArrayList<>();
+        for (int step = 1; step <= imageLoader.getPrefetchCount() && step < totalImages; step++) {
+            int index = forward ? (currentIndex + step) % totalImages : (currentIndex - step + totalImages) % totalImages;
+            upcoming.add(slides.getFile(index));
         }
+        return upcoming;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,173 @@
+package com.example.iterator;
+
+import javafx.scene.image.Image;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/*декодирование изображений вне потока FX
+  показанный файл и несколько следующих по направлению просмотра декодируются фоновыми потоками,
+  запросы, которые вышли из этого окна, отменяются (еще не начатые не декодируются вовсе)
+  декодированные изображения попадают в DecodedImageCache, поэтому возврат назад не декодирует заново
+  декодируется сразу под размер области показа (setTargetSize), а не в исходном разрешении:
+  24 Мп фото занимает ~96 МБ в куче, а под экран в 1240 пикселей - несколько МБ
+  hits/misses - сколько кадров было уже готово к моменту показа
+  вызывается из потока FX */
+final class ImageLoadingService {
+
+    private final ExecutorService executor;
+    private final int prefetchCount;
+    private final Function<File, String> fingerprint;
+    private final DecodedImageCache cache;
+
+    //окно: показанный файл и предзагружаемые, в порядке постановки
+    private final Map<File, Request> window = new LinkedHashMap<>();
+    private int targetWidth = 0;  //0 - исходный размер
+    private int targetHeight = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /*fingerprint - ключ кэша для файла; вызывается в потоке FX, поэтому должен быть быстрым */
+    ImageLoadingService(int prefetchCount, Function<File, String> fingerprint, DecodedImageCache cache) {
+        this.prefetchCount = prefetchCount;
+        this.fingerprint = fingerprint;
+        this.cache = cache;
+        //одно ядро оставляем потоку FX
+        int threads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "image-decoder-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    int getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    /*изображение для показа; upcoming - файлы, которые покажут следующими (ближайший первым)
+      результат null, если файл не удалось прочитать */
+    CompletableFuture<Image> show(File file, List<File> upcoming) {
+        Request current = window.get(file);
+        if (current == null) {
+            current = submit(file);
+        }
+        //готов, если уже декодирован предзагрузкой или взят из кэша
+        if (current.result.isDone() && !current.result.isCancelled()) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+
+        Map<File, Request> updated = new LinkedHashMap<>();
+        updated.put(file, current);
+        for (File next : upcoming.subList(0, Math.min(prefetchCount, upcoming.size()))) {
+            if (!updated.containsKey(next)) {
+                Request request = window.get(next);
+                updated.put(next, request != null ? request : submit(next));
+            }
+        }
+
+        //все, что выпало из окна, больше не нужно
+        for (Map.Entry<File, Request> entry : window.entrySet()) {
+            if (!updated.containsKey(entry.getKey())) {
+                entry.getValue().cancel();
+            }
+        }
+        window.clear();
+        window.putAll(updated);
+
+        return updated.get(file).result;
+    }
+
+    /*рамка, в которую вписывается декодированное изображение (с сохранением пропорций)
+      при увеличении масштаба задается большая рамка - текущий кадр декодируется заново;
+      окно сбрасывается, кадры прежнего размера остаются в кэше под своим ключом */
+    void setTargetSize(int width, int height) {
+        if (width == targetWidth && height == targetHeight) return;
+        targetWidth = width;
+        targetHeight = height;
+        window.values().forEach(Request::cancel);
+        window.clear();
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    void shutdown() {
+        window.values().forEach(Request::cancel);
+        window.clear();
+        executor.shutdownNow();
+    }
+
+    private Request submit(File file) {
+        String key = fingerprint.apply(file);
+        int width = targetWidth;
+        int height = targetHeight;
+        Image cached = key != null ? cache.get(key, width, height) : null;
+        if (cached != null) {
+            return new Request(CompletableFuture.completedFuture(cached), null);
+        }
+
+        CompletableFuture<Image> result = new CompletableFuture<>();
+        Future<?> task = executor.submit(() -> {
+            if (result.isDone()) return;
+            Image image = decode(file, width, height);
+            if (key != null) {
+                cache.put(key, width, height, image);
+            }
+            result.complete(image);
+        });
+        return new Request(result, task);
+    }
+
+    /*Image без фоновой загрузки декодирует файл прямо в вызывающем потоке;
+      с заданным размером масштабирует при декодировании, полноразмерный буфер не держится */
+    private static Image decode(File file, int width, int height) {
+        try {
+            if (!file.exists() || file.length() == 0) {
+                return null;
+            }
+            Image image = new Image(file.toURI().toString(), width, height, true, true, false);
+            return image.isError() ? null : image;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static final class Request {
+        final CompletableFuture<Image> result;
+        final Future<?> task; //null, если изображение взято из кэша
+
+        Request(CompletableFuture<Image> result, Future<?> task) {
+            this.result = result;
+            this.task = task;
+        }
+
+        void cancel() {
+            if (task != null) {
+                task.cancel(false);
+            }
+            result.cancel(false);
+        }
+    }
+}